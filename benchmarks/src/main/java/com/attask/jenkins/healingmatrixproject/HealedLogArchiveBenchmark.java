@@ -0,0 +1,71 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures moving the log of a failed attempt into the archive, with and without compressing it.
+ * A fresh copy of the log is made before every invocation, since archiving consumes it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HealedLogArchiveBenchmark {
+	@Param({"1", "50"})
+	public int logMegabytes;
+
+	@Param({"false", "true"})
+	public boolean compress;
+
+	private File directory;
+	private File template;
+	private File source;
+	private File target;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = File.createTempFile("benchmark", "");
+		if (!directory.delete() || !directory.mkdirs()) {
+			throw new IOException("Couldn't create " + directory);
+		}
+		template = new File(directory, "template.log");
+		Random random = new Random(42);
+		StringBuilder log = new StringBuilder();
+		while (log.length() < logMegabytes * 1024 * 1024) {
+			log.append(LogPatternMatcherBenchmark.createLine(random, 120)).append('\n');
+		}
+		FileUtils.writeStringToFile(template, log.toString(), "UTF-8");
+	}
+
+	@Setup(Level.Invocation)
+	public void copyLog() throws IOException {
+		source = new File(directory, "log");
+		target = new File(directory, "archived" + (compress ? HealedAction.COMPRESSED_EXTENSION : ""));
+		FileUtils.copyFile(template, source);
+	}
+
+	@TearDown(Level.Invocation)
+	public void removeLogs() {
+		source.delete();
+		target.delete();
+		ChunkedGzip.indexOf(target).delete();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Benchmark
+	public void archive() throws IOException {
+		HealedAction.archiveLog(source, target, compress);
+	}
+}
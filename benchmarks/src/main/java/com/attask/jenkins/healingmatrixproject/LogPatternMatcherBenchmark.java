@@ -0,0 +1,125 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures compiling log patterns and scanning logs with them, for different numbers of patterns, log sizes and line lengths.
+ * The logs never match, so every line is checked, which is what a passing run that qualified to be rerun costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LogPatternMatcherBenchmark {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Param({"1", "10", "100"})
+	public int patternCount;
+
+	@Param({"1", "50"})
+	public int logMegabytes;
+
+	@Param({"80", "2000"})
+	public int lineLength;
+
+	private String patternText;
+	private LogPatternMatcher matcher;
+	private File log;
+	private List<String> lines;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		patternText = createPatterns(patternCount);
+		matcher = LogPatternMatcher.compile(patternText);
+
+		Random random = new Random(42);
+		log = File.createTempFile("benchmark", ".log");
+		lines = new ArrayList<String>();
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(log), UTF_8));
+		try {
+			long bytes = logMegabytes * 1024L * 1024L;
+			for (long written = 0; written < bytes; written += lineLength + 1) {
+				String line = createLine(random, lineLength);
+				writer.write(line);
+				writer.write('\n');
+				//Keep the in-memory lines to about a megabyte, so the heap doesn't skew the file scans.
+				if (lines.size() * (long) lineLength < 1024 * 1024) {
+					lines.add(line);
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (!log.delete()) {
+			log.deleteOnExit();
+		}
+	}
+
+	@Benchmark
+	public LogPatternMatcher compile() {
+		return LogPatternMatcher.compile(patternText);
+	}
+
+	@Benchmark
+	public int scanLog() throws IOException {
+		return LogScanner.scan(log, matcher, UTF_8, 0);
+	}
+
+	@Benchmark
+	public void findInLines(Blackhole blackhole) {
+		LogPatternMatcher.Session session = matcher.newSession();
+		for (String line : lines) {
+			blackhole.consume(session.find(line));
+		}
+	}
+
+	/**
+	 * A mix of the kinds of patterns people write: plain text, regular expressions with some required text, and ones without.
+	 */
+	static String createPatterns(int count) {
+		StringBuilder patterns = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			switch (i % 3) {
+				case 0:
+					patterns.append("java.net.SocketException: Connection reset by peer ").append(i);
+					break;
+				case 1:
+					patterns.append("Could not resolve host: [a-z]+\\.example\\.com \\(").append(i).append("\\)");
+					break;
+				default:
+					patterns.append("^\\[\\d+\\] (FATAL|PANIC) .* code=").append(i).append('$');
+					break;
+			}
+			patterns.append('\n');
+		}
+		return patterns.toString();
+	}
+
+	static String createLine(Random random, int length) {
+		StringBuilder line = new StringBuilder(length);
+		while (line.length() < length) {
+			int wordLength = 1 + random.nextInt(10);
+			for (int i = 0; i < wordLength && line.length() < length; i++) {
+				line.append((char) ('a' + random.nextInt(26)));
+			}
+			if (line.length() < length) {
+				line.append(' ');
+			}
+		}
+		return line.toString();
+	}
+}
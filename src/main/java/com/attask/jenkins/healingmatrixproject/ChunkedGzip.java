@@ -0,0 +1,298 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzips logs as a run of independently compressed members, each holding {@link #CHUNK_BYTES} of the log,
+ * and keeps the offset of every member in an index file next to it.
+ * To any gzip reader it's still one ordinary file, but a part of the log can be read by decompressing from the member
+ * holding it, rather than from the start of the file.
+ * <p/>
+ * Logs gzipped before the index was kept are read from the start, so reading the end of a big one is still slow.
+ */
+final class ChunkedGzip {
+	/**
+	 * Appended to the name of a compressed log to get the name of its index.
+	 */
+	static final String INDEX_EXTENSION = ".idx";
+
+	/**
+	 * How much of the log goes in each member.
+	 * Reading from an offset decompresses at most this much that isn't wanted.
+	 */
+	static final int CHUNK_BYTES = 1024 * 1024;
+
+	private ChunkedGzip() {
+	}
+
+	static File indexOf(File file) {
+		return new File(file.getPath() + INDEX_EXTENSION);
+	}
+
+	static void compress(File source, File target) throws IOException {
+		compress(source, target, CHUNK_BYTES);
+	}
+
+	static void compress(File source, File target, int chunkBytes) throws IOException {
+		List<Long> offsets = new ArrayList<Long>();
+		long length = 0;
+		InputStream in = new FileInputStream(source);
+		try {
+			MemberOutputStream out = new MemberOutputStream(new BufferedOutputStream(new FileOutputStream(target)));
+			try {
+				byte[] buffer = new byte[8192];
+				int copied;
+				do {
+					offsets.add(out.count);
+					OutputStream member = new GZIPOutputStream(out);
+					try {
+						copied = copy(in, member, buffer, chunkBytes);
+					} finally {
+						member.close();
+					}
+					length += copied;
+				} while(copied == chunkBytes);
+			} finally {
+				out.closeFile();
+			}
+		} finally {
+			in.close();
+		}
+
+		DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexOf(target))));
+		try {
+			index.writeInt(chunkBytes);
+			index.writeLong(length);
+			index.writeInt(offsets.size());
+			for(long offset : offsets) {
+				index.writeLong(offset);
+			}
+		} finally {
+			index.close();
+		}
+	}
+
+	/**
+	 * @return The length of the log, uncompressed.
+	 */
+	static long length(File file) throws IOException {
+		Index index = Index.read(file);
+		if(index != null) {
+			return index.length;
+		}
+
+		//The last 4 bytes of a gzip file are the uncompressed length, modulo 2^32.
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			if(randomAccessFile.length() < 4) {
+				return 0;
+			}
+			randomAccessFile.seek(randomAccessFile.length() - 4);
+			byte[] trailer = new byte[4];
+			randomAccessFile.readFully(trailer);
+			return (trailer[0] & 0xFFL) | (trailer[1] & 0xFFL) << 8 | (trailer[2] & 0xFFL) << 16 | (trailer[3] & 0xFFL) << 24;
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * @return The log, decompressed, starting at the given offset.
+	 */
+	static InputStream open(File file, long from) throws IOException {
+		Index index = Index.read(file);
+		InputStream in;
+		long skip;
+		if(index == null) {
+			in = new GZIPInputStream(new FileInputStream(file));
+			skip = from;
+		} else {
+			int member = (int) Math.min(from / index.chunkBytes, index.offsets.length - 1);
+			in = new MemberInputStream(file, index.offsets, member);
+			skip = from - (long) member * index.chunkBytes;
+		}
+
+		long skipped = 0;
+		while(skipped < skip) {
+			long n = in.skip(skip - skipped);
+			if(n <= 0) {
+				break;
+			}
+			skipped += n;
+		}
+		return in;
+	}
+
+	private static int copy(InputStream in, OutputStream out, byte[] buffer, int limit) throws IOException {
+		int copied = 0;
+		while(copied < limit) {
+			int read = in.read(buffer, 0, Math.min(buffer.length, limit - copied));
+			if(read < 0) {
+				break;
+			}
+			out.write(buffer, 0, read);
+			copied += read;
+		}
+		return copied;
+	}
+
+	private static final class Index {
+		final int chunkBytes;
+		final long length;
+		final long[] offsets;
+
+		private Index(int chunkBytes, long length, long[] offsets) {
+			this.chunkBytes = chunkBytes;
+			this.length = length;
+			this.offsets = offsets;
+		}
+
+		/**
+		 * @return The index of the compressed log, or null if it doesn't have one.
+		 */
+		static Index read(File file) throws IOException {
+			File indexFile = indexOf(file);
+			if(!indexFile.isFile()) {
+				return null;
+			}
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			try {
+				int chunkBytes = in.readInt();
+				long length = in.readLong();
+				long[] offsets = new long[in.readInt()];
+				for(int i = 0; i < offsets.length; i++) {
+					offsets[i] = in.readLong();
+				}
+				if(chunkBytes <= 0 || offsets.length == 0) {
+					throw new IOException("Corrupt index: " + indexFile.getAbsolutePath());
+				}
+				return new Index(chunkBytes, length, offsets);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Counts what's written through it and isn't closed with each member, so the next member can follow.
+	 */
+	private static final class MemberOutputStream extends FilterOutputStream {
+		long count;
+
+		MemberOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+		void closeFile() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Decompresses the members one after another, each from exactly its own bytes of the file.
+	 */
+	private static final class MemberInputStream extends InputStream {
+		private final RandomAccessFile file;
+		private final long[] offsets;
+		private int nextMember;
+		private InputStream current;
+
+		MemberInputStream(File file, long[] offsets, int firstMember) throws IOException {
+			this.file = new RandomAccessFile(file, "r");
+			this.offsets = offsets;
+			this.nextMember = firstMember;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			while(true) {
+				if(current == null) {
+					if(nextMember >= offsets.length) {
+						return -1;
+					}
+					long start = offsets[nextMember];
+					long end = nextMember + 1 < offsets.length ? offsets[nextMember + 1] : file.length();
+					current = new GZIPInputStream(new RegionInputStream(file, start, end));
+					nextMember++;
+				}
+				int read = current.read(b, off, len);
+				if(read >= 0) {
+					return read;
+				}
+				current.close();
+				current = null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(current != null) {
+				current.close();
+			}
+			file.close();
+		}
+	}
+
+	private static final class RegionInputStream extends InputStream {
+		private final RandomAccessFile file;
+		private long position;
+		private final long end;
+
+		RegionInputStream(RandomAccessFile file, long start, long end) {
+			this.file = file;
+			this.position = start;
+			this.end = end;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(position >= end) {
+				return -1;
+			}
+			file.seek(position);
+			int read = file.read(b, off, (int) Math.min(len, end - position));
+			if(read > 0) {
+				position += read;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() {
+			//The file is shared by every member.
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.model.InvisibleAction;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Attached to the queue item of a retry to keep it off the nodes where earlier attempts failed.
+ * {@link ExcludedNodesDispatcher} enforces it.
+ * <p/>
+ * The exclusion only lasts so long. If nothing else has picked up the retry by then, any node may take it,
+ * so a configuration that can only run on one node is never stuck in the queue forever.
+ */
+public class ExcludedNodesAction extends InvisibleAction {
+	private final Set<String> nodeNames;
+	private final long excludedUntil;
+
+	/**
+	 * @param nodeNames     Names of the nodes to keep the retry off. The master is the empty string, as in {@link hudson.model.Node#getNodeName()}.
+	 * @param timeoutMillis How long the nodes are excluded for.
+	 */
+	public ExcludedNodesAction(Set<String> nodeNames, long timeoutMillis) {
+		this.nodeNames = Collections.unmodifiableSet(new LinkedHashSet<String>(nodeNames));
+		this.excludedUntil = System.currentTimeMillis() + timeoutMillis;
+	}
+
+	public Set<String> getNodeNames() {
+		return nodeNames;
+	}
+
+	public long getExcludedUntil() {
+		return excludedUntil;
+	}
+
+	/**
+	 * @return True if the given node may not take the retry yet.
+	 */
+	public boolean isExcluded(String nodeName) {
+		return System.currentTimeMillis() < excludedUntil && nodeNames.contains(nodeName);
+	}
+}
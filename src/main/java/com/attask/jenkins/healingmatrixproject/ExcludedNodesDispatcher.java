@@ -0,0 +1,35 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+
+/**
+ * Keeps retries off the nodes listed in their {@link ExcludedNodesAction}.
+ */
+@Extension
+public class ExcludedNodesDispatcher extends QueueTaskDispatcher {
+	@Override
+	public CauseOfBlockage canTake(Node node, Queue.BuildableItem item) {
+		ExcludedNodesAction action = item.getAction(ExcludedNodesAction.class);
+		if (action != null && action.isExcluded(node.getNodeName())) {
+			return new FailedOnNode(node);
+		}
+		return null;
+	}
+
+	private static class FailedOnNode extends CauseOfBlockage {
+		private final String nodeName;
+
+		private FailedOnNode(Node node) {
+			this.nodeName = node.getDisplayName();
+		}
+
+		@Override
+		public String getShortDescription() {
+			return "A previous attempt failed on " + nodeName;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.console.ConsoleNote;
+
+import java.util.regex.Pattern;
+
+/**
+ * Turns a line that matched a log pattern into a signature that is the same for every configuration that failed the same way.
+ * Timestamps, URLs, paths, hashes and numbers differ from run to run, so they're masked.
+ * <p/>
+ * e.g. "2013-03-06 10:28:01 Could not GET http://repo:8081/a/b.jar (attempt 3)" becomes "&lt;time&gt; Could not GET &lt;url&gt; (attempt &lt;n&gt;)".
+ */
+final class FailureSignature {
+	/**
+	 * Signatures are cut off at this length, so one huge line doesn't become a huge map key.
+	 */
+	private static final int MAX_LENGTH = 500;
+	/**
+	 * Lines are cut off at this length before they're masked.
+	 * A matched line can be as long as {@link LogScanner#DEFAULT_MAX_LINE_LENGTH}, and this runs on the thread that coordinates the build.
+	 */
+	private static final int MAX_LINE_LENGTH = 1024;
+
+	private static final Pattern TIMESTAMP = Pattern.compile("\\d{4}-\\d{2}-\\d{2}([T ]\\d{1,2}:\\d{2}(:\\d{2}([.,]\\d+)?)?(Z|[+-]\\d{2}:?\\d{2})?)?|\\b\\d{1,2}:\\d{2}:\\d{2}([.,]\\d+)?\\b");
+	private static final Pattern URL = Pattern.compile("\\b[a-zA-Z][a-zA-Z0-9+.-]*://\\S+");
+	//Possessive, and a path only starts where a run of path characters does, so a long line without separators can't backtrack.
+	private static final Pattern PATH = Pattern.compile("(?:\\b[a-zA-Z]:)?+[\\\\/]?+(?<![\\w.$@~-])(?:[\\w.$@~-]++[\\\\/])++[\\w.$@~-]*+");
+	private static final Pattern HEX = Pattern.compile("\\b(?:0x)?+(?=[a-fA-F]*+\\d)(?=\\d*+[a-fA-F])[0-9a-fA-F]{4,}+\\b");
+	private static final Pattern NUMBER = Pattern.compile("\\d+");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private FailureSignature() {
+	}
+
+	/**
+	 * @param line A line of a log, which may still have console notes in it.
+	 * @return The signature of the line.
+	 */
+	static String of(String line) {
+		String signature = ConsoleNote.removeNotes(line);
+		if (signature.length() > MAX_LINE_LENGTH) {
+			signature = signature.substring(0, MAX_LINE_LENGTH);
+		}
+		signature = TIMESTAMP.matcher(signature).replaceAll("<time>");
+		signature = URL.matcher(signature).replaceAll("<url>");
+		signature = PATH.matcher(signature).replaceAll("<path>");
+		signature = HEX.matcher(signature).replaceAll("<hex>");
+		signature = NUMBER.matcher(signature).replaceAll("<n>");
+		signature = WHITESPACE.matcher(signature).replaceAll(" ").trim();
+		return signature.length() > MAX_LENGTH ? signature.substring(0, MAX_LENGTH) : signature;
+	}
+}
@@ -0,0 +1,297 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.model.Job;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * How often each configuration of a matrix project has needed a rerun, and how often the rerun helped.
+ * <p/>
+ * Kept in a single append-only file in the project's directory, one line per configuration per build, so nothing has to be read from old builds.
+ * Every line is a record that can be added to the others, so when the file has grown well past one line per configuration,
+ * it is compacted into one summed line for each.
+ * <p/>
+ * Loaded once per project and kept in memory. Thread-safe.
+ */
+public class FlakinessHistory {
+	private static final Logger LOGGER = Logger.getLogger("healing-matrix-project");
+	private static final String FILE_NAME = "selfHealingHistory.tsv";
+	/**
+	 * Compacts once the file has this many lines per configuration, plus some slack for small projects.
+	 */
+	private static final int LINES_PER_CONFIGURATION_BEFORE_COMPACTING = 4;
+	private static final int MIN_LINES_BEFORE_COMPACTING = 200;
+
+	private static final ConcurrentMap<String, FlakinessHistory> histories = new ConcurrentHashMap<String, FlakinessHistory>();
+
+	private final File file;
+	private final Map<String, ConfigurationHistory> configurations = new HashMap<String, ConfigurationHistory>();
+	private int lines = 0;
+
+	FlakinessHistory(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return The history of the given project, loaded from disk the first time it's asked for.
+	 */
+	public static FlakinessHistory forProject(Job<?, ?> project) {
+		File file = new File(project.getRootDir(), FILE_NAME);
+		String key = file.getAbsolutePath();
+		FlakinessHistory history = histories.get(key);
+		if (history == null) {
+			history = new FlakinessHistory(file);
+			history.load();
+			FlakinessHistory existing = histories.putIfAbsent(key, history);
+			if (existing != null) {
+				history = existing;
+			}
+		}
+		return history;
+	}
+
+	/**
+	 * @param configuration The name of the configuration, e.g. {@link hudson.matrix.MatrixConfiguration#getName()}.
+	 * @return A copy of everything recorded for the configuration, or null if nothing has been.
+	 */
+	public synchronized ConfigurationHistory get(String configuration) {
+		ConfigurationHistory history = configurations.get(configuration);
+		return history == null ? null : history.copy();
+	}
+
+	/**
+	 * @return A copy of everything recorded, by configuration name.
+	 */
+	public synchronized Map<String, ConfigurationHistory> getAll() {
+		Map<String, ConfigurationHistory> result = new TreeMap<String, ConfigurationHistory>();
+		for (Map.Entry<String, ConfigurationHistory> entry : configurations.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().copy());
+		}
+		return result;
+	}
+
+	/**
+	 * Records how a configuration did in one matrix build.
+	 *
+	 * @param configuration   The name of the configuration.
+	 * @param attempts        The number of times it was run, including reruns.
+	 * @param healed          True if it was rerun and the last run passed.
+	 * @param matchedPatterns The patterns that matched the runs that were rerun.
+	 * @param durationMillis  How long the last run took, or a negative number if it's unknown.
+	 * @throws IOException If the record couldn't be written.
+	 */
+	public synchronized void record(String configuration, int attempts, boolean healed, List<String> matchedPatterns, long durationMillis) throws IOException {
+		ConfigurationHistory record = new ConfigurationHistory();
+		record.builds = 1;
+		record.attempts = attempts;
+		record.retriedBuilds = attempts > 1 ? 1 : 0;
+		record.healedBuilds = healed ? 1 : 0;
+		if (durationMillis >= 0) {
+			record.timedBuilds = 1;
+			record.totalDurationMillis = durationMillis;
+		}
+		for (String pattern : matchedPatterns) {
+			record.addPatternMatches(pattern, 1);
+		}
+		add(configuration, record);
+
+		File parent = file.getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Couldn't create directory: " + parent.getAbsolutePath());
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+		try {
+			writer.write(format(configuration, record));
+		} finally {
+			writer.close();
+		}
+		lines++;
+
+		if (lines > MIN_LINES_BEFORE_COMPACTING && lines > configurations.size() * LINES_PER_CONFIGURATION_BEFORE_COMPACTING) {
+			compact();
+		}
+	}
+
+	private void add(String configuration, ConfigurationHistory record) {
+		ConfigurationHistory existing = configurations.get(configuration);
+		if (existing == null) {
+			configurations.put(configuration, record);
+		} else {
+			existing.add(record);
+		}
+	}
+
+	private synchronized void load() {
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					lines++;
+					try {
+						String[] fields = line.split("\t", -1);
+						add(TabSeparated.unescape(fields[0]), parse(fields));
+					} catch (RuntimeException e) {
+						//Most likely a line cut short when Jenkins went down. Losing one record is fine.
+						LOGGER.warning("Skipping unreadable line " + lines + " of " + file.getAbsolutePath());
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			LOGGER.warning("Couldn't read " + file.getAbsolutePath() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Rewrites the file with one line per configuration.
+	 * The new file is written next to the old one and then moved over it, so a crash while writing it doesn't leave half a history.
+	 */
+	private void compact() throws IOException {
+		File compacted = new File(file.getParentFile(), FILE_NAME + ".tmp");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(compacted), "UTF-8");
+		try {
+			for (Map.Entry<String, ConfigurationHistory> entry : configurations.entrySet()) {
+				writer.write(format(entry.getKey(), entry.getValue()));
+			}
+		} finally {
+			writer.close();
+		}
+		//Windows won't rename over an existing file.
+		if (!compacted.renameTo(file) && !(file.delete() && compacted.renameTo(file))) {
+			throw new IOException("Couldn't replace " + file.getAbsolutePath() + " with " + compacted.getAbsolutePath());
+		}
+		lines = configurations.size();
+	}
+
+	private static String format(String configuration, ConfigurationHistory record) {
+		StringBuilder line = new StringBuilder();
+		line.append(TabSeparated.escape(configuration))
+				.append('\t').append(record.builds)
+				.append('\t').append(record.attempts)
+				.append('\t').append(record.retriedBuilds)
+				.append('\t').append(record.healedBuilds)
+				.append('\t').append(record.timedBuilds)
+				.append('\t').append(record.totalDurationMillis);
+		for (Map.Entry<String, Integer> entry : record.patternMatches.entrySet()) {
+			line.append('\t').append(entry.getValue()).append('\t').append(TabSeparated.escape(entry.getKey()));
+		}
+		return line.append('\n').toString();
+	}
+
+	private static ConfigurationHistory parse(String[] fields) {
+		if (fields.length < 7 || fields.length % 2 == 0) {
+			throw new IllegalArgumentException("Wrong number of fields: " + fields.length);
+		}
+		ConfigurationHistory record = new ConfigurationHistory();
+		record.builds = Integer.parseInt(fields[1]);
+		record.attempts = Integer.parseInt(fields[2]);
+		record.retriedBuilds = Integer.parseInt(fields[3]);
+		record.healedBuilds = Integer.parseInt(fields[4]);
+		record.timedBuilds = Integer.parseInt(fields[5]);
+		record.totalDurationMillis = Long.parseLong(fields[6]);
+		for (int i = 7; i < fields.length; i += 2) {
+			record.addPatternMatches(TabSeparated.unescape(fields[i + 1]), Integer.parseInt(fields[i]));
+		}
+		return record;
+	}
+
+	/**
+	 * Everything recorded for one configuration, summed over every build.
+	 */
+	public static class ConfigurationHistory {
+		private int builds;
+		private int attempts;
+		private int retriedBuilds;
+		private int healedBuilds;
+		private int timedBuilds;
+		private long totalDurationMillis;
+		private final Map<String, Integer> patternMatches = new TreeMap<String, Integer>();
+
+		/**
+		 * The number of matrix builds the configuration was built in.
+		 */
+		public int getBuilds() {
+			return builds;
+		}
+
+		/**
+		 * The number of times the configuration was run, including reruns.
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * The number of builds in which the configuration was rerun at least once.
+		 */
+		public int getRetriedBuilds() {
+			return retriedBuilds;
+		}
+
+		/**
+		 * The number of builds in which the configuration was rerun and then passed.
+		 */
+		public int getHealedBuilds() {
+			return healedBuilds;
+		}
+
+		/**
+		 * How many times each pattern matched a run that was rerun.
+		 */
+		public Map<String, Integer> getPatternMatches() {
+			return Collections.unmodifiableMap(patternMatches);
+		}
+
+		/**
+		 * @return The fraction of builds that needed a rerun, from 0 to 1.
+		 */
+		public double getFlakeRate() {
+			return builds == 0 ? 0 : (double) retriedBuilds / builds;
+		}
+
+		/**
+		 * @return The fraction of rerun builds where rerunning helped, from 0 to 1.
+		 */
+		public double getHealRate() {
+			return retriedBuilds == 0 ? 0 : (double) healedBuilds / retriedBuilds;
+		}
+
+		/**
+		 * @return How long the last run of a build usually takes, or -1 if it's unknown.
+		 */
+		public long getAverageDurationMillis() {
+			return timedBuilds == 0 ? -1 : totalDurationMillis / timedBuilds;
+		}
+
+		private void addPatternMatches(String pattern, int count) {
+			Integer existing = patternMatches.get(pattern);
+			patternMatches.put(pattern, existing == null ? count : existing + count);
+		}
+
+		private void add(ConfigurationHistory other) {
+			builds += other.builds;
+			attempts += other.attempts;
+			retriedBuilds += other.retriedBuilds;
+			healedBuilds += other.healedBuilds;
+			timedBuilds += other.timedBuilds;
+			totalDurationMillis += other.totalDurationMillis;
+			for (Map.Entry<String, Integer> entry : other.patternMatches.entrySet()) {
+				addPatternMatches(entry.getKey(), entry.getValue());
+			}
+		}
+
+		private ConfigurationHistory copy() {
+			ConfigurationHistory copy = new ConfigurationHistory();
+			copy.add(this);
+			return copy;
+		}
+	}
+}
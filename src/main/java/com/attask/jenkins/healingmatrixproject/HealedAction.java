@@ -1,23 +1,28 @@
 package com.attask.jenkins.healingmatrixproject;
 
-import hudson.console.AnnotatedLargeText;
+import hudson.console.ConsoleNote;
+import hudson.console.PlainTextConsoleOutputStream;
 import hudson.matrix.MatrixBuild;
 import hudson.matrix.MatrixRun;
 import hudson.model.Action;
 import org.apache.commons.io.FileUtils;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.export.Exported;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * User: Joel Johnson
@@ -27,17 +32,89 @@ import java.util.logging.Logger;
 public class HealedAction implements Action {
 	private static final Logger LOGGER = Logger.getLogger("healing-matrix-project");
 
+	/**
+	 * Archived logs with this extension are gzipped.
+	 */
+	public static final String COMPRESSED_EXTENSION = ".gz";
+
+	/**
+	 * How much of the end of an old log is shown when no other part of it is asked for.
+	 */
+	public static final int DEFAULT_TAIL_BYTES = 64 * 1024;
+
+	/**
+	 * The most of an old log sent per request when it's fetched progressively.
+	 */
+	private static final int PROGRESSIVE_CHUNK_BYTES = 256 * 1024;
+
+	/**
+	 * The number of lines kept on either side of the line that matched.
+	 */
+	private static final int EXCERPT_CONTEXT_LINES = 3;
+
+	private static final Pattern RANGE_HEADER = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+	/**
+	 * Returned by {@link #parseRange(String, long)} for a range that starts past the end of the log.
+	 */
+	static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+	/**
+	 * Only set on builds from older versions, which listed the archived logs here, in build.xml.
+	 * Moved to the {@link HealedLogIndex} the first time the logs are looked at.
+	 */
 	private Map<String, List<File>> oldLogFiles;
 	private final Charset charSet;
+	/**
+	 * Used to give every archived log of the build a unique name without checking what's already on disk.
+	 */
+	private int nextLogId;
+	private int attemptCount;
+	private int runCount;
+
+	/**
+	 * Loaded the first time the archived logs are looked at.
+	 */
+	private transient HealedLogIndex index;
 
 	public HealedAction(Charset charSet) {
-		oldLogFiles = new ConcurrentHashMap<String, List<File>>();
 		this.charSet = charSet == null ? Charset.defaultCharset() : charSet;
 	}
 
+	@SuppressWarnings("UnusedDeclaration")
+	private Object readResolve() {
+		if(oldLogFiles != null && attemptCount == 0) {
+			runCount = oldLogFiles.size();
+			for (List<File> files : oldLogFiles.values()) {
+				attemptCount += files.size();
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * The number of failed attempts whose logs were archived. Doesn't need the logs to be looked at.
+	 */
+	@Exported
+	public synchronized int getAttemptCount() {
+		return attemptCount;
+	}
+
+	/**
+	 * The number of runs that were rerun at least once. Doesn't need the logs to be looked at.
+	 */
 	@Exported
-	public Map<String, List<File>> getOldLogFiles() {
-		return oldLogFiles;
+	public synchronized int getRunCount() {
+		return runCount;
+	}
+
+	/**
+	 * Every failed attempt of the build being viewed, by the name of the run.
+	 * Reads the index of archived logs, so only use it on the Auto-Healed page itself.
+	 */
+	public Map<String, List<HealedLogIndex.Attempt>> getAttempts() {
+		HealedLogIndex healedLogIndex = getIndex(findBuild(Stapler.getCurrentRequest()));
+		return healedLogIndex == null ? Collections.<String, List<HealedLogIndex.Attempt>>emptyMap() : healedLogIndex.getAttempts();
 	}
 
 	public Charset getCharSet() {
@@ -46,8 +123,16 @@ public class HealedAction implements Action {
 
 	/**
 	 * Saves the old log file.
+	 * The log is moved rather than copied, since the run is deleted right after this anyway.
+	 * It's only copied if it can't be moved, e.g. when the archive is on a different file system.
+	 *
+	 * The lines around the match are kept in the index, so the Auto-Healed page can show them without reading the log.
+	 *
+	 * @param compress       If true, the log is gzipped into the archive as it's read, instead of being moved.
+	 * @param matchedPattern The pattern that matched the log, or null if it isn't known.
+	 * @param matchOffset    The byte offset of the line that matched, or -1 if it isn't known.
 	 */
-	public void addAutoHealedJob(MatrixRun run) throws IOException {
+	public void addAutoHealedJob(MatrixRun run, boolean compress, String matchedPattern, long matchOffset) throws IOException {
 		MatrixBuild parent = run.getParentBuild();
 		File rootDir = parent.getRootDir();
 		File oldLogDir = new File(rootDir, "autoHealedLogs");
@@ -61,34 +146,277 @@ public class HealedAction implements Action {
 			String runName = run.toString();
 
 			String newFileName = runName.replaceAll("[^A-Za-z0-9_-]", "_");
-			File newFile = new File(oldLogDir, newFileName);
+			File newFile = new File(oldLogDir, newFileName + "_" + allocateLogId() + (compress ? COMPRESSED_EXTENSION : ""));
+
+			String excerpt = readExcerpt(oldLogToCopy, run.getCharset(), matchOffset);
+			archiveLog(oldLogToCopy, newFile, compress);
 
-			//Lazy way to make sure we don't have duplicates.
-			int uniquifier = 0;
-			while(newFile.exists()) {
-				newFile = new File(oldLogDir, newFileName + (++uniquifier));
+			HealedLogIndex healedLogIndex = getIndex(parent);
+			healedLogIndex.add(runName, newFile, matchedPattern, excerpt == null ? -1 : matchOffset, excerpt);
+			synchronized(this) {
+				attemptCount++;
+				runCount = healedLogIndex.getRunCount();
 			}
+		}
+	}
 
-			FileUtils.copyFile(oldLogToCopy, newFile);
+	/**
+	 * @return The lines around the match with console notes removed, or null if there's no match or it couldn't be read.
+	 */
+	private static String readExcerpt(File log, Charset charset, long matchOffset) {
+		if(matchOffset < 0) {
+			return null;
+		}
+		try {
+			String excerpt = LogScanner.readExcerpt(log, charset, matchOffset, EXCERPT_CONTEXT_LINES);
+			return excerpt == null ? null : ConsoleNote.removeNotes(excerpt);
+		} catch (IOException e) {
+			LOGGER.warning("Couldn't read the lines around the match in " + log.getAbsolutePath() + ": " + e.getMessage());
+			return null;
+		}
+	}
 
-			List<File> logFileList = oldLogFiles.get(runName);
-			if(logFileList == null) {
-				logFileList = new CopyOnWriteArrayList<File>();
-				oldLogFiles.put(runName, logFileList);
+	/**
+	 * Loads the index of archived logs of the given build, moving the list of an older version of the plugin out of build.xml if there is one.
+	 *
+	 * @return The index, or null if the build isn't known.
+	 */
+	private synchronized HealedLogIndex getIndex(MatrixBuild build) {
+		if(index == null && build != null) {
+			File logDirectory = new File(build.getRootDir(), "autoHealedLogs");
+			if(oldLogFiles == null) {
+				index = HealedLogIndex.load(logDirectory);
+			} else {
+				try {
+					index = HealedLogIndex.migrate(logDirectory, oldLogFiles);
+					oldLogFiles = null;
+					build.save();
+				} catch(IOException e) {
+					LOGGER.warning("Couldn't move the list of archived logs of " + build + " out of build.xml: " + e.getMessage());
+					index = HealedLogIndex.load(logDirectory);
+				}
 			}
-			logFileList.add(newFile);
 		}
+		return index;
+	}
+
+	private static MatrixBuild findBuild(StaplerRequest request) {
+		return request == null ? null : request.findAncestorObject(MatrixBuild.class);
+	}
+
+	private synchronized int allocateLogId() {
+		return nextLogId++;
 	}
 
+	/**
+	 * Moves a log into the archive, or gzips it there if asked to.
+	 * Gzipped logs are written by {@link ChunkedGzip}, so any part of them can be sent without decompressing what's before it.
+	 */
+	static void archiveLog(File source, File target, boolean compress) throws IOException {
+		if(compress) {
+			ChunkedGzip.compress(source, target);
+		} else if(!source.renameTo(target)) {
+			FileUtils.copyFile(source, target);
+		}
+	}
+
+	/**
+	 * Shows {@link #DEFAULT_TAIL_BYTES} of an old log, fetching it progressively like the console of a build.
+	 * Only that much is shown, however big the log is, so the browser can cope. Links lead to earlier and later parts, or to the whole thing.
+	 *
+	 * @param start Offset to start showing the log from. If not given, the end of the log is shown.
+	 */
+	public void doAttempt(StaplerRequest request, StaplerResponse response,
+						  @QueryParameter(value = "name", required = true) String name,
+						  @QueryParameter(value = "index", required = true) int index,
+						  @QueryParameter("start") String start
+	) throws IOException, ServletException {
+		File file = getLogFile(request, name, index);
+		if(file == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		long length = getLogLength(file);
+		long startOffset = Math.min(parseOffset(start, Math.max(0, length - DEFAULT_TAIL_BYTES)), length);
+		request.setAttribute("logName", name);
+		request.setAttribute("logIndex", index);
+		long endOffset = Math.min(length, startOffset + DEFAULT_TAIL_BYTES);
+		request.setAttribute("startOffset", startOffset);
+		request.setAttribute("endOffset", endOffset);
+		request.setAttribute("startKilobytes", startOffset / 1024);
+		request.setAttribute("endKilobytes", endOffset / 1024);
+		request.setAttribute("lengthKilobytes", length / 1024);
+		request.setAttribute("earlierOffset", Math.max(0, startOffset - DEFAULT_TAIL_BYTES));
+		request.setAttribute("hasLater", endOffset < length);
+		request.getView(this, "attemptLog.jelly").forward(request, response);
+	}
+
+	/**
+	 * Sends part of an old log as plain text.
+	 * <ul>
+	 * <li>With a 'Range' header, exactly the requested bytes are sent, console annotations and all.</li>
+	 * <li>With a 'start' parameter, everything from that offset on is sent.</li>
+	 * <li>Otherwise only the last {@link #DEFAULT_TAIL_BYTES} are sent.</li>
+	 * </ul>
+	 */
 	public void doLog(StaplerRequest request, StaplerResponse response,
 					  @QueryParameter(value = "name", required = true) String name,
-					  @QueryParameter(value = "index", required = true) int index
+					  @QueryParameter(value = "index", required = true) int index,
+					  @QueryParameter("start") String start
 	) throws IOException {
-		List<File> files = getOldLogFiles().get(name);
-		File file = files.get(index);
+		File file = getLogFile(request, name, index);
+		if(file == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		long length = getLogLength(file);
+		response.setHeader("Accept-Ranges", "bytes");
+		response.setContentType("text/plain;charset=" + getCharSet().name());
+
+		long[] range = parseRange(request.getHeader("Range"), length);
+		if(range == UNSATISFIABLE_RANGE) {
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		}
+		if(range != null) {
+			long from = range[0];
+			long to = range[1];
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", "bytes " + from + "-" + (to - 1) + "/" + length);
+			response.setHeader("Content-Length", String.valueOf(to - from));
+			OutputStream out = response.getOutputStream();
+			writeLog(file, from, to, out);
+			out.flush();
+			return;
+		}
 
-		AnnotatedLargeText<HealedAction> annotatedLargeText = new AnnotatedLargeText<HealedAction>(file, getCharSet(), true, this);
-		annotatedLargeText.writeLogTo(0, response.getOutputStream());
+		long from = Math.min(parseOffset(start, Math.max(0, length - DEFAULT_TAIL_BYTES)), length);
+		OutputStream out = new PlainTextConsoleOutputStream(response.getOutputStream());
+		writeLog(file, from, length, out);
+		out.close();
+	}
+
+	/**
+	 * Sends the next part of an old log for the progressiveText tag, at most {@link #PROGRESSIVE_CHUNK_BYTES} at a time.
+	 * The 'X-More-Data' header tells the page to keep fetching until everything up to 'end' has been sent.
+	 *
+	 * @param end Offset to stop at. If not given, the whole rest of the log is sent.
+	 */
+	public void doProgressiveLog(StaplerRequest request, StaplerResponse response,
+								 @QueryParameter(value = "name", required = true) String name,
+								 @QueryParameter(value = "index", required = true) int index,
+								 @QueryParameter("start") String start,
+								 @QueryParameter("end") String end
+	) throws IOException {
+		File file = getLogFile(request, name, index);
+		if(file == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		long length = getLogLength(file);
+		long until = Math.min(parseOffset(end, length), length);
+		long from = Math.min(parseOffset(start, 0), until);
+		long to = Math.min(until, from + PROGRESSIVE_CHUNK_BYTES);
+		response.setContentType("text/html;charset=" + getCharSet().name());
+		response.setHeader("X-Text-Size", String.valueOf(to));
+		if(to < until) {
+			response.setHeader("X-More-Data", "true");
+		}
+		//The page inserts what's sent as HTML.
+		OutputStream out = new PlainTextConsoleOutputStream(new HtmlEscapingOutputStream(response.getOutputStream()));
+		writeLog(file, from, to, out);
+		out.close();
+	}
+
+	/**
+	 * @return The archived log, or null if there is no such log or it has been pruned.
+	 */
+	private File getLogFile(StaplerRequest request, String name, int index) {
+		HealedLogIndex healedLogIndex = getIndex(findBuild(request));
+		HealedLogIndex.Attempt attempt = healedLogIndex == null ? null : healedLogIndex.get(name, index);
+		if(attempt == null || !attempt.isAvailable()) {
+			return null;
+		}
+		return attempt.getFile();
+	}
+
+	/**
+	 * @return The length of the log, uncompressed.
+	 */
+	private static long getLogLength(File file) throws IOException {
+		if(!file.getName().endsWith(COMPRESSED_EXTENSION)) {
+			return file.length();
+		}
+		return ChunkedGzip.length(file);
+	}
+
+	/**
+	 * Copies the bytes of the log from one offset up to another. Compressed logs are decompressed on the fly.
+	 */
+	private static void writeLog(File file, long from, long to, OutputStream out) throws IOException {
+		InputStream in;
+		if(file.getName().endsWith(COMPRESSED_EXTENSION)) {
+			//Decompressed as it's sent, it's never held in memory or written back to disk.
+			in = ChunkedGzip.open(file, from);
+		} else {
+			FileInputStream fileInputStream = new FileInputStream(file);
+			fileInputStream.getChannel().position(from);
+			in = fileInputStream;
+		}
+
+		try {
+			byte[] buffer = new byte[8192];
+			long remaining = to - from;
+			while(remaining > 0) {
+				int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if(read < 0) {
+					break;
+				}
+				out.write(buffer, 0, read);
+				remaining -= read;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param range  The 'Range' header of a request, which may be null.
+	 * @param length The length of the log.
+	 * @return The offset to send from and the offset to send up to (exclusive), null if no single byte range was asked for,
+	 * or {@link #UNSATISFIABLE_RANGE} if the range is past the end of the log.
+	 */
+	static long[] parseRange(String range, long length) {
+		Matcher matcher = range == null ? null : RANGE_HEADER.matcher(range.trim());
+		if(matcher == null || !matcher.matches() || (matcher.group(1).length() == 0 && matcher.group(2).length() == 0)) {
+			return null;
+		}
+		long from;
+		long to;
+		if(matcher.group(1).length() == 0) {
+			//"bytes=-500" is the last 500 bytes
+			from = Math.max(0, length - Long.parseLong(matcher.group(2)));
+			to = length;
+		} else {
+			from = Long.parseLong(matcher.group(1));
+			to = matcher.group(2).length() == 0 ? length : Math.min(length, Long.parseLong(matcher.group(2)) + 1);
+		}
+		return from < to ? new long[]{from, to} : UNSATISFIABLE_RANGE;
+	}
+
+	private static long parseOffset(String value, long defaultValue) {
+		if(value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Math.max(0, Long.parseLong(value));
+		} catch(NumberFormatException e) {
+			return defaultValue;
+		}
 	}
 
 	public String urlEncode(String toEncode) throws UnsupportedEncodingException {
@@ -106,4 +434,49 @@ public class HealedAction implements Action {
 	public String getUrlName() {
 		return "autoHealed";
 	}
+
+	/**
+	 * Escapes the characters that are special in HTML.
+	 * Works on the bytes, which is safe for ASCII-compatible charsets.
+	 */
+	private static class HtmlEscapingOutputStream extends FilterOutputStream {
+		private static final byte[] LT = "&lt;".getBytes();
+		private static final byte[] GT = "&gt;".getBytes();
+		private static final byte[] AMP = "&amp;".getBytes();
+
+		HtmlEscapingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			switch(b) {
+				case '<':
+					out.write(LT);
+					break;
+				case '>':
+					out.write(GT);
+					break;
+				case '&':
+					out.write(AMP);
+					break;
+				default:
+					out.write(b);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			int start = off;
+			int end = off + len;
+			for(int i = off; i < end; i++) {
+				if(b[i] == '<' || b[i] == '>' || b[i] == '&') {
+					out.write(b, start, i - start);
+					write(b[i]);
+					start = i + 1;
+				}
+			}
+			out.write(b, start, end - start);
+		}
+	}
 }
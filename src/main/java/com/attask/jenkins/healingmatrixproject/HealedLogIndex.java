@@ -0,0 +1,235 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Lists the archived logs of the failed attempts of one matrix build.
+ * <p/>
+ * Kept in an append-only file next to the logs, one line per attempt, with the file names relative to that directory.
+ * Each line also has the pattern that matched and the lines around the match, so a retry can be triaged without opening its log.
+ * This keeps it out of build.xml, so loading a build doesn't load it; it's only read when the attempts are looked at.
+ * <p/>
+ * Thread-safe.
+ */
+public class HealedLogIndex {
+	private static final Logger LOGGER = Logger.getLogger("healing-matrix-project");
+
+	/**
+	 * The name of the index in the directory of archived logs.
+	 */
+	public static final String FILE_NAME = "index.tsv";
+
+	private final File directory;
+	private final Map<String, List<Attempt>> attempts = new LinkedHashMap<String, List<Attempt>>();
+
+	private HealedLogIndex(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Reads the index of the given directory of archived logs. An index that doesn't exist yet is empty.
+	 */
+	public static HealedLogIndex load(File directory) {
+		HealedLogIndex index = new HealedLogIndex(directory);
+		File file = new File(directory, FILE_NAME);
+		if (!file.exists()) {
+			return index;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				int lineNumber = 0;
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					lineNumber++;
+					String[] fields = line.split("\t", -1);
+					if (fields.length < 2) {
+						//Most likely a line cut short when Jenkins went down.
+						LOGGER.warning("Skipping unreadable line " + lineNumber + " of " + file.getAbsolutePath());
+						continue;
+					}
+					//Older lines have only the run and the file.
+					String pattern = fields.length > 2 && fields[2].length() > 0 ? TabSeparated.unescape(fields[2]) : null;
+					long matchOffset = fields.length > 3 ? parseOffset(fields[3]) : -1;
+					String excerpt = fields.length > 4 && fields[4].length() > 0 ? TabSeparated.unescape(fields[4]) : null;
+					index.put(new Attempt(TabSeparated.unescape(fields[0]), index.resolve(TabSeparated.unescape(fields[1])), pattern, matchOffset, excerpt));
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			LOGGER.warning("Couldn't read " + file.getAbsolutePath() + ": " + e.getMessage());
+		}
+		return index;
+	}
+
+	/**
+	 * Writes an index for logs archived by older versions of the plugin, which listed them in build.xml.
+	 * Does nothing to an index that already exists.
+	 */
+	public static HealedLogIndex migrate(File directory, Map<String, List<File>> oldLogFiles) throws IOException {
+		if (new File(directory, FILE_NAME).exists()) {
+			return load(directory);
+		}
+		HealedLogIndex index = new HealedLogIndex(directory);
+		for (Map.Entry<String, List<File>> entry : oldLogFiles.entrySet()) {
+			for (File file : entry.getValue()) {
+				index.add(entry.getKey(), file, null, -1, null);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Adds an archived log to the index.
+	 *
+	 * @param runName     The name of the run that failed.
+	 * @param file        The archived log.
+	 * @param pattern     The pattern that matched the log, or null if it isn't known.
+	 * @param matchOffset The byte offset of the line that matched, or -1 if it isn't known.
+	 * @param excerpt     The lines around the match, or null if they aren't known.
+	 * @return The number of logs archived for the run, including this one.
+	 * @throws IOException If the index couldn't be written.
+	 */
+	public synchronized int add(String runName, File file, String pattern, long matchOffset, String excerpt) throws IOException {
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Couldn't create directory: " + directory.getAbsolutePath());
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, FILE_NAME), true), "UTF-8");
+		try {
+			writer.write(TabSeparated.escape(runName) + "\t" + TabSeparated.escape(relativize(file))
+					+ "\t" + (pattern == null ? "" : TabSeparated.escape(pattern))
+					+ "\t" + matchOffset
+					+ "\t" + (excerpt == null ? "" : TabSeparated.escape(excerpt)) + "\n");
+		} finally {
+			writer.close();
+		}
+		return put(new Attempt(runName, file, pattern, matchOffset, excerpt));
+	}
+
+	/**
+	 * @return A copy of every attempt, by the name of the run that failed, in the order they were archived.
+	 */
+	public synchronized Map<String, List<Attempt>> getAttempts() {
+		Map<String, List<Attempt>> result = new LinkedHashMap<String, List<Attempt>>();
+		for (Map.Entry<String, List<Attempt>> entry : attempts.entrySet()) {
+			result.put(entry.getKey(), new ArrayList<Attempt>(entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * @return The given attempt of the given run, or null if there's no such attempt.
+	 */
+	public synchronized Attempt get(String runName, int index) {
+		List<Attempt> runAttempts = attempts.get(runName);
+		if (runAttempts == null || index < 0 || index >= runAttempts.size()) {
+			return null;
+		}
+		return runAttempts.get(index);
+	}
+
+	/**
+	 * @return The number of runs that have at least one archived log.
+	 */
+	public synchronized int getRunCount() {
+		return attempts.size();
+	}
+
+	/**
+	 * @return The number of archived logs.
+	 */
+	public synchronized int getAttemptCount() {
+		int count = 0;
+		for (List<Attempt> runAttempts : attempts.values()) {
+			count += runAttempts.size();
+		}
+		return count;
+	}
+
+	private int put(Attempt attempt) {
+		List<Attempt> runAttempts = attempts.get(attempt.getRunName());
+		if (runAttempts == null) {
+			runAttempts = new ArrayList<Attempt>();
+			attempts.put(attempt.getRunName(), runAttempts);
+		}
+		runAttempts.add(attempt);
+		return runAttempts.size();
+	}
+
+	/**
+	 * Logs in the directory are stored by name, so the build can be moved. Logs elsewhere, from older versions, keep their full path.
+	 */
+	private String relativize(File file) {
+		return directory.equals(file.getParentFile()) ? file.getName() : file.getAbsolutePath();
+	}
+
+	private static long parseOffset(String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private File resolve(String path) {
+		File file = new File(path);
+		return file.isAbsolute() ? file : new File(directory, path);
+	}
+
+	/**
+	 * One failed attempt of a run whose log was archived.
+	 */
+	public static class Attempt {
+		private final String runName;
+		private final File file;
+		private final String pattern;
+		private final long matchOffset;
+		private final String excerpt;
+
+		private Attempt(String runName, File file, String pattern, long matchOffset, String excerpt) {
+			this.runName = runName;
+			this.file = file;
+			this.pattern = pattern;
+			this.matchOffset = matchOffset;
+			this.excerpt = excerpt;
+		}
+
+		public String getRunName() {
+			return runName;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return The pattern that matched the log, or null if it isn't known.
+		 */
+		public String getPattern() {
+			return pattern;
+		}
+
+		/**
+		 * @return The byte offset in the log of the line that matched, or -1 if it isn't known.
+		 */
+		public long getMatchOffset() {
+			return matchOffset;
+		}
+
+		/**
+		 * @return The line that matched with a few lines on either side of it, or null if they aren't known.
+		 */
+		public String getExcerpt() {
+			return excerpt;
+		}
+
+		/**
+		 * @return False if the log has been pruned by {@link HealedLogPruner}.
+		 */
+		public boolean isAvailable() {
+			return file.exists();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.Extension;
+import hudson.matrix.MatrixExecutionStrategy;
+import hudson.matrix.MatrixProject;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Removes the logs of failed attempts that are past the retention limits set on {@link SelfHealingMatrixExecutionStrategy}.
+ * <p/>
+ * Works directly on the build directories, so builds don't have to be loaded to be pruned.
+ * A pruned log is still listed in the {@link HealedLogIndex}, it just can't be viewed anymore.
+ */
+@Extension
+public class HealedLogPruner extends AsyncPeriodicWork {
+	private static final Logger LOGGER = Logger.getLogger("healing-matrix-project");
+
+	public HealedLogPruner() {
+		super("Self-healing log pruner");
+	}
+
+	@Override
+	public long getRecurrencePeriod() {
+		return HOUR;
+	}
+
+	@Override
+	protected void execute(TaskListener listener) throws IOException, InterruptedException {
+		Jenkins jenkins = Jenkins.getInstance();
+		if (jenkins == null) {
+			return;
+		}
+		for (MatrixProject project : jenkins.getAllItems(MatrixProject.class)) {
+			MatrixExecutionStrategy strategy = project.getExecutionStrategy();
+			if (strategy instanceof SelfHealingMatrixExecutionStrategy && ((SelfHealingMatrixExecutionStrategy) strategy).hasHealedLogRetention()) {
+				prune(project, (SelfHealingMatrixExecutionStrategy) strategy);
+			}
+		}
+	}
+
+	private void prune(MatrixProject project, SelfHealingMatrixExecutionStrategy strategy) throws IOException {
+		File[] buildDirs = project.getBuildDir().listFiles();
+		if (buildDirs == null) {
+			return;
+		}
+
+		//Build directories can also be reached through a symlink named after the build number.
+		Set<String> seen = new HashSet<String>();
+		for (File buildDir : buildDirs) {
+			File logDir = new File(buildDir, "autoHealedLogs");
+			if (logDir.isDirectory() && seen.add(logDir.getCanonicalPath())) {
+				prune(logDir, strategy);
+			}
+		}
+	}
+
+	private void prune(File logDir, SelfHealingMatrixExecutionStrategy strategy) {
+		File[] logs = logDir.listFiles();
+		if (logs == null) {
+			return;
+		}
+
+		//Newest first, so whatever is past a limit is the oldest.
+		Arrays.sort(logs, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long difference = b.lastModified() - a.lastModified();
+				return difference > 0 ? 1 : difference < 0 ? -1 : 0;
+			}
+		});
+
+		long oldestAllowed = strategy.getHealedLogDaysToKeep() > 0 ? System.currentTimeMillis() - strategy.getHealedLogDaysToKeep() * DAY : Long.MIN_VALUE;
+		long bytesAllowed = strategy.getHealedLogMegabytesToKeep() > 0 ? strategy.getHealedLogMegabytesToKeep() * 1024L * 1024L : Long.MAX_VALUE;
+		int countAllowed = strategy.getHealedLogsToKeep() > 0 ? strategy.getHealedLogsToKeep() : Integer.MAX_VALUE;
+
+		long bytesKept = 0;
+		int countKept = 0;
+		for (File log : logs) {
+			if (!log.isFile() || log.getName().equals(HealedLogIndex.FILE_NAME) || log.getName().endsWith(ChunkedGzip.INDEX_EXTENSION)) {
+				continue;
+			}
+			//A compressed log goes with its index.
+			File chunkIndex = ChunkedGzip.indexOf(log);
+			long length = log.length() + chunkIndex.length();
+			if (log.lastModified() < oldestAllowed || countKept >= countAllowed || bytesKept + length > bytesAllowed) {
+				if (!log.delete() || (chunkIndex.exists() && !chunkIndex.delete())) {
+					LOGGER.warning("Couldn't remove old healed log: " + log.getAbsolutePath());
+				}
+			} else {
+				countKept++;
+				bytesKept += length;
+			}
+		}
+	}
+}
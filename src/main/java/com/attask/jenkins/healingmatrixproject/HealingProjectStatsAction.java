@@ -0,0 +1,125 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.Extension;
+import hudson.matrix.MatrixProject;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Api;
+import hudson.model.TransientProjectActionFactory;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What healing has done for a matrix project over all of its builds, summed from its {@link FlakinessHistory}.
+ * Polled through the remote API, e.g. <code>/job/x/healingStats/api/json</code>. Nothing is computed until it's asked for.
+ */
+@ExportedBean
+public class HealingProjectStatsAction implements Action {
+	private final MatrixProject project;
+
+	public HealingProjectStatsAction(MatrixProject project) {
+		this.project = project;
+	}
+
+	public Api getApi() {
+		return new Api(this);
+	}
+
+	/**
+	 * The number of configuration builds recorded, one per configuration per matrix build.
+	 */
+	@Exported
+	public int getBuilds() {
+		int result = 0;
+		for (FlakinessHistory.ConfigurationHistory history : getHistories()) {
+			result += history.getBuilds();
+		}
+		return result;
+	}
+
+	/**
+	 * The number of runs, including reruns.
+	 */
+	@Exported
+	public int getAttempts() {
+		int result = 0;
+		for (FlakinessHistory.ConfigurationHistory history : getHistories()) {
+			result += history.getAttempts();
+		}
+		return result;
+	}
+
+	/**
+	 * The number of configuration builds that were rerun at least once.
+	 */
+	@Exported
+	public int getRetriedBuilds() {
+		int result = 0;
+		for (FlakinessHistory.ConfigurationHistory history : getHistories()) {
+			result += history.getRetriedBuilds();
+		}
+		return result;
+	}
+
+	/**
+	 * The number of configuration builds that were rerun and then passed.
+	 */
+	@Exported
+	public int getHealedBuilds() {
+		int result = 0;
+		for (FlakinessHistory.ConfigurationHistory history : getHistories()) {
+			result += history.getHealedBuilds();
+		}
+		return result;
+	}
+
+	/**
+	 * The number of reruns each log pattern caused.
+	 */
+	@Exported
+	public Map<String, Integer> getRetriesByPattern() {
+		Map<String, Integer> result = new TreeMap<String, Integer>();
+		for (FlakinessHistory.ConfigurationHistory history : getHistories()) {
+			for (Map.Entry<String, Integer> entry : history.getPatternMatches().entrySet()) {
+				Integer count = result.get(entry.getKey());
+				result.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	private Collection<FlakinessHistory.ConfigurationHistory> getHistories() {
+		return FlakinessHistory.forProject(project).getAll().values();
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "Healing Stats";
+	}
+
+	public String getUrlName() {
+		return "healingStats";
+	}
+
+	/**
+	 * Adds the stats to every matrix project that heals itself.
+	 */
+	@Extension
+	public static class Factory extends TransientProjectActionFactory {
+		@Override
+		public Collection<? extends Action> createFor(AbstractProject target) {
+			if (target instanceof MatrixProject && ((MatrixProject) target).getExecutionStrategy() instanceof SelfHealingMatrixExecutionStrategy) {
+				return Collections.singleton(new HealingProjectStatsAction((MatrixProject) target));
+			}
+			return Collections.emptyList();
+		}
+	}
+}
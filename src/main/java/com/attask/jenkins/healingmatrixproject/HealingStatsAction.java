@@ -0,0 +1,177 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.model.Action;
+import hudson.model.Api;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What healing cost a single matrix build.
+ * Kept apart from {@link HealedAction} so it can be polled through the remote API, e.g.
+ * <code>/job/x/1/healingStats/api/json?tree=retries,scanMillis</code>, without sending every archived log.
+ * <p/>
+ * Updated by the coordinator and the post-processing threads while the build runs. Thread-safe.
+ */
+@ExportedBean
+public class HealingStatsAction implements Action {
+	private int configurations;
+	private int attempts;
+	private int retries;
+	private long coordinatorIterations;
+	private long coordinatorNanos;
+	private long retryLatencyMillis;
+	private long queueMillis;
+	private long logBytesScanned;
+	private long scanMillis;
+	private long archivedBytes;
+	private long archiveMillis;
+	private final Map<String, Integer> retriesByPattern = new TreeMap<String, Integer>();
+
+	public Api getApi() {
+		return new Api(this);
+	}
+
+	/**
+	 * The number of configurations scheduled, not counting reruns.
+	 */
+	@Exported
+	public synchronized int getConfigurations() {
+		return configurations;
+	}
+
+	/**
+	 * The number of runs that finished, including reruns.
+	 */
+	@Exported
+	public synchronized int getAttempts() {
+		return attempts;
+	}
+
+	@Exported
+	public synchronized int getRetries() {
+		return retries;
+	}
+
+	/**
+	 * The number of times the coordinator woke up to look at finished runs.
+	 */
+	@Exported
+	public synchronized long getCoordinatorIterations() {
+		return coordinatorIterations;
+	}
+
+	/**
+	 * The time the coordinator spent working, rather than waiting for something to happen.
+	 */
+	@Exported
+	public synchronized long getCoordinatorMillis() {
+		return coordinatorNanos / 1000000;
+	}
+
+	/**
+	 * The time from each failed run finishing to its rerun being put in the queue, added up.
+	 * Divide by {@link #getRetries()} for the average.
+	 */
+	@Exported
+	public synchronized long getRetryLatencyMillis() {
+		return retryLatencyMillis;
+	}
+
+	/**
+	 * The time all runs spent in the queue, added up.
+	 */
+	@Exported
+	public synchronized long getQueueMillis() {
+		return queueMillis;
+	}
+
+	/**
+	 * The bytes of finished logs scanned for patterns.
+	 */
+	@Exported
+	public synchronized long getLogBytesScanned() {
+		return logBytesScanned;
+	}
+
+	/**
+	 * The time spent scanning finished logs for patterns, added up over every post-processing thread.
+	 */
+	@Exported
+	public synchronized long getScanMillis() {
+		return scanMillis;
+	}
+
+	/**
+	 * The bytes of logs of failed attempts moved or compressed into the archive.
+	 */
+	@Exported
+	public synchronized long getArchivedBytes() {
+		return archivedBytes;
+	}
+
+	@Exported
+	public synchronized long getArchiveMillis() {
+		return archiveMillis;
+	}
+
+	/**
+	 * The number of reruns each log pattern caused. An empty pattern means any failure was rerun.
+	 */
+	@Exported
+	public synchronized Map<String, Integer> getRetriesByPattern() {
+		return new TreeMap<String, Integer>(retriesByPattern);
+	}
+
+	synchronized void addConfiguration() {
+		configurations++;
+	}
+
+	synchronized void addAttempt(long queueMillis) {
+		attempts++;
+		if (queueMillis > 0) {
+			this.queueMillis += queueMillis;
+		}
+	}
+
+	synchronized void addRetry(String pattern) {
+		retries++;
+		Integer count = retriesByPattern.get(pattern);
+		retriesByPattern.put(pattern, count == null ? 1 : count + 1);
+	}
+
+	synchronized void addCoordinatorIteration(long busyNanos) {
+		coordinatorIterations++;
+		coordinatorNanos += busyNanos;
+	}
+
+	synchronized void addRetryLatency(long millis) {
+		if (millis > 0) {
+			retryLatencyMillis += millis;
+		}
+	}
+
+	synchronized void addScan(long bytes, long millis) {
+		logBytesScanned += bytes;
+		scanMillis += millis;
+	}
+
+	synchronized void addArchive(long bytes, long millis) {
+		archivedBytes += bytes;
+		archiveMillis += millis;
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "Healing Stats";
+	}
+
+	public String getUrlName() {
+		return "healingStats";
+	}
+}
@@ -0,0 +1,116 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over a small integer alphabet.
+ * Finds every occurrence of every keyword in a single pass over the input, in time linear to the input length
+ * regardless of the number of keywords.
+ * <p/>
+ * The automaton is fully determinized into a transition table, so stepping is a single array lookup.
+ * Instances are immutable and may be shared between threads.
+ */
+class LiteralAutomaton {
+	private static final int[] NO_OUTPUT = new int[0];
+
+	private final int alphabetSize;
+	private final int[] transitions;
+	private final int[][] outputs;
+
+	/**
+	 * @param keywords     The keywords to find, each as a sequence of symbols in the range [0, alphabetSize).
+	 * @param keywordIds   The id reported when the keyword at the same index is found.
+	 * @param alphabetSize The number of distinct symbols.
+	 */
+	LiteralAutomaton(int[][] keywords, int[] keywordIds, int alphabetSize) {
+		this.alphabetSize = alphabetSize;
+
+		int maxStates = 1;
+		for (int[] keyword : keywords) {
+			maxStates += keyword.length;
+		}
+
+		//Build the trie. -1 marks a missing edge until the failure links fill it in.
+		int[] table = new int[maxStates * alphabetSize];
+		Arrays.fill(table, -1);
+		List<List<Integer>> stateOutputs = new ArrayList<List<Integer>>();
+		stateOutputs.add(new ArrayList<Integer>());
+		int stateCount = 1;
+		for (int i = 0; i < keywords.length; i++) {
+			int state = 0;
+			for (int symbol : keywords[i]) {
+				int next = table[state * alphabetSize + symbol];
+				if (next < 0) {
+					next = stateCount++;
+					table[state * alphabetSize + symbol] = next;
+					stateOutputs.add(new ArrayList<Integer>());
+				}
+				state = next;
+			}
+			stateOutputs.get(state).add(keywordIds[i]);
+		}
+
+		//Breadth-first, turn failure links into direct transitions and inherit the outputs of the failure state.
+		int[] failure = new int[stateCount];
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		for (int symbol = 0; symbol < alphabetSize; symbol++) {
+			int next = table[symbol];
+			if (next < 0) {
+				table[symbol] = 0;
+			} else {
+				failure[next] = 0;
+				queue.add(next);
+			}
+		}
+		while (!queue.isEmpty()) {
+			int state = queue.removeFirst();
+			stateOutputs.get(state).addAll(stateOutputs.get(failure[state]));
+			for (int symbol = 0; symbol < alphabetSize; symbol++) {
+				int index = state * alphabetSize + symbol;
+				int next = table[index];
+				if (next < 0) {
+					table[index] = table[failure[state] * alphabetSize + symbol];
+				} else {
+					failure[next] = table[failure[state] * alphabetSize + symbol];
+					queue.add(next);
+				}
+			}
+		}
+
+		this.transitions = new int[stateCount * alphabetSize];
+		System.arraycopy(table, 0, this.transitions, 0, this.transitions.length);
+		this.outputs = new int[stateCount][];
+		for (int state = 0; state < stateCount; state++) {
+			List<Integer> ids = stateOutputs.get(state);
+			if (ids.isEmpty()) {
+				outputs[state] = NO_OUTPUT;
+			} else {
+				outputs[state] = new int[ids.size()];
+				for (int i = 0; i < ids.size(); i++) {
+					outputs[state][i] = ids.get(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The state to start every scan in.
+	 */
+	int start() {
+		return 0;
+	}
+
+	int next(int state, int symbol) {
+		return transitions[state * alphabetSize + symbol];
+	}
+
+	/**
+	 * @return Ids of every keyword that ends at the given state. Never null.
+	 */
+	int[] outputs(int state) {
+		return outputs[state];
+	}
+}
@@ -0,0 +1,659 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * All of the log patterns of a {@link SelfHealingMatrixExecutionStrategy}, compiled once into a single matcher.
+ * <p/>
+ * Each line is only walked once by an Aho-Corasick automaton built from the literal text of the patterns:
+ * <ul>
+ * <li>Patterns that are plain text are decided by the automaton alone.</li>
+ * <li>Regular expressions that contain some required plain text are only evaluated on lines where the automaton found that text.</li>
+ * <li>Regular expressions with no required plain text are evaluated on every line.</li>
+ * </ul>
+ * Every regular expression evaluation has a step budget proportional to the length of the line.
+ * A pattern that backtracks catastrophically gives up, and isn't evaluated again for the rest of the scan,
+ * so it can't stall the build by blowing its budget on every line of a big log.
+ * <p/>
+ * Instances are thread-safe. Use a {@link Session} per scan.
+ */
+public class LogPatternMatcher {
+	private static final Logger LOGGER = Logger.getLogger("healing-matrix-project");
+
+	private static final LogPatternMatcher EMPTY = new LogPatternMatcher(Collections.<String>emptyList());
+
+	/**
+	 * Regular expression steps allowed per character of a line, on top of {@link #BASE_STEP_BUDGET}.
+	 */
+	private static final long STEPS_PER_CHARACTER = 1000;
+	private static final long BASE_STEP_BUDGET = 10000;
+
+	private final String[] patternStrings;
+	private final Pattern[] patterns;
+	/**
+	 * Indexes of patterns that can only be decided by a regular expression, on every line.
+	 */
+	private final int[] unguarded;
+	/**
+	 * True if the pattern at that index is plain text and a hit from the automaton is a match by itself.
+	 */
+	private final boolean[] literalOnly;
+
+	private final LiteralAutomaton automaton;
+	private final int[] asciiSymbols;
+	private final char[] otherCharacters;
+	private final int firstOtherSymbol;
+
+	/**
+	 * The plain text the automaton looks for, and the pattern each one belongs to.
+	 */
+	private final String[] keywords;
+	private final int[] keywordIds;
+	/**
+	 * Automata over encoded keywords, built the first time a charset is used.
+	 */
+	private final ConcurrentMap<String, LiteralAutomaton> byteAutomata = new ConcurrentHashMap<String, LiteralAutomaton>();
+
+	/**
+	 * Compiles the given line-separated list of regular expressions.
+	 *
+	 * @param logPattern One regular expression per line. May be null or empty.
+	 * @throws java.util.regex.PatternSyntaxException If any line is not a valid regular expression.
+	 */
+	public static LogPatternMatcher compile(String logPattern) {
+		if (logPattern == null || logPattern.isEmpty()) {
+			return EMPTY;
+		}
+		List<String> lines = new ArrayList<String>();
+		Scanner scanner = new Scanner(logPattern);
+		while (scanner.hasNextLine()) {
+			lines.add(scanner.nextLine());
+		}
+		return new LogPatternMatcher(lines);
+	}
+
+	private LogPatternMatcher(List<String> lines) {
+		int count = lines.size();
+		patternStrings = lines.toArray(new String[count]);
+		patterns = new Pattern[count];
+		literalOnly = new boolean[count];
+
+		List<String> keywords = new ArrayList<String>();
+		List<Integer> keywordIds = new ArrayList<Integer>();
+		List<Integer> unguardedIds = new ArrayList<Integer>();
+		for (int i = 0; i < count; i++) {
+			String line = patternStrings[i];
+			patterns[i] = Pattern.compile(line);
+
+			String literal = plainLiteral(line);
+			if (literal != null && !literal.isEmpty()) {
+				literalOnly[i] = true;
+			} else {
+				literal = requiredLiteral(line);
+			}
+
+			if (literal == null || literal.isEmpty()) {
+				unguardedIds.add(i);
+			} else {
+				keywords.add(literal);
+				keywordIds.add(i);
+			}
+		}
+
+		unguarded = toArray(unguardedIds);
+
+		//Only characters that appear in a keyword get their own symbol. Everything else is symbol 0.
+		TreeSet<Character> alphabet = new TreeSet<Character>();
+		for (String keyword : keywords) {
+			for (int i = 0; i < keyword.length(); i++) {
+				alphabet.add(keyword.charAt(i));
+			}
+		}
+		asciiSymbols = new int[128];
+		List<Character> others = new ArrayList<Character>();
+		int symbol = 1;
+		for (Character c : alphabet) {
+			if (c < 128) {
+				asciiSymbols[c] = symbol++;
+			} else {
+				others.add(c);
+			}
+		}
+		firstOtherSymbol = symbol;
+		otherCharacters = new char[others.size()];
+		for (int i = 0; i < others.size(); i++) {
+			otherCharacters[i] = others.get(i);
+		}
+
+		int[][] keywordSymbols = new int[keywords.size()][];
+		for (int i = 0; i < keywords.size(); i++) {
+			String keyword = keywords.get(i);
+			keywordSymbols[i] = new int[keyword.length()];
+			for (int j = 0; j < keyword.length(); j++) {
+				keywordSymbols[i][j] = symbolOf(keyword.charAt(j));
+			}
+		}
+		this.keywords = keywords.toArray(new String[keywords.size()]);
+		this.keywordIds = toArray(keywordIds);
+		automaton = new LiteralAutomaton(keywordSymbols, this.keywordIds, symbol + otherCharacters.length);
+	}
+
+	/**
+	 * @return True if no patterns were given, meaning every log should be accepted.
+	 */
+	public boolean isEmpty() {
+		return patternStrings.length == 0;
+	}
+
+	public int size() {
+		return patternStrings.length;
+	}
+
+	/**
+	 * @return The pattern as it was written by the user.
+	 */
+	public String getPattern(int index) {
+		return patternStrings[index];
+	}
+
+	/**
+	 * Starts a scan of lines given as characters.
+	 */
+	public Session newSession() {
+		return new Session(null);
+	}
+
+	/**
+	 * Starts a scan of lines given as bytes in the given charset.
+	 * If the charset allows it, plain text is found directly in the bytes and lines are only decoded when a regular expression has to be evaluated.
+	 */
+	public Session newSession(Charset charset) {
+		return new Session(charset == null ? Charset.defaultCharset() : charset);
+	}
+
+	/**
+	 * @return True if a line break is the single byte '\n' and ASCII text is encoded as itself in the given charset.
+	 *         Multi-byte charsets like UTF-16 fail this check.
+	 */
+	static boolean isAsciiCompatible(Charset charset) {
+		if (!charset.canEncode()) {
+			return false;
+		}
+		String ascii = "\n\rAZaz09 ";
+		ByteBuffer encoded = charset.encode(ascii);
+		if (encoded.remaining() != ascii.length()) {
+			return false;
+		}
+		for (int i = 0; i < ascii.length(); i++) {
+			if (encoded.get(i) != ascii.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Plain text can only be searched for in the encoded bytes if no character's encoding can appear in the middle of another's.
+	 * That's true for UTF-8 and for single-byte ASCII-compatible charsets, but not for charsets like Shift_JIS.
+	 */
+	private static boolean canMatchBytes(Charset charset) {
+		if ("UTF-8".equals(charset.name())) {
+			return true;
+		}
+		return charset.canEncode() && charset.newEncoder().maxBytesPerChar() <= 1 && isAsciiCompatible(charset);
+	}
+
+	/**
+	 * @return An automaton over the bytes of the keywords encoded in the given charset, or null if the charset doesn't allow it.
+	 */
+	private LiteralAutomaton getByteAutomaton(Charset charset) {
+		LiteralAutomaton result = byteAutomata.get(charset.name());
+		if (result == null && canMatchBytes(charset)) {
+			List<int[]> encodedKeywords = new ArrayList<int[]>();
+			List<Integer> encodedIds = new ArrayList<Integer>();
+			CharsetEncoder encoder = charset.newEncoder();
+			for (int i = 0; i < keywords.length; i++) {
+				//A keyword that can't be encoded can't appear in the log, so leaving it out keeps the result correct.
+				if (encoder.canEncode(keywords[i])) {
+					ByteBuffer bytes = charset.encode(keywords[i]);
+					int[] symbols = new int[bytes.remaining()];
+					for (int j = 0; j < symbols.length; j++) {
+						symbols[j] = bytes.get(j) & 0xFF;
+					}
+					encodedKeywords.add(symbols);
+					encodedIds.add(keywordIds[i]);
+				}
+			}
+			result = new LiteralAutomaton(encodedKeywords.toArray(new int[encodedKeywords.size()][]), toArray(encodedIds), 256);
+			byteAutomata.put(charset.name(), result);
+		}
+		return result;
+	}
+
+	private int symbolOf(char c) {
+		if (c < 128) {
+			return asciiSymbols[c];
+		}
+		int index = Arrays.binarySearch(otherCharacters, c);
+		return index < 0 ? 0 : firstOtherSymbol + index;
+	}
+
+	/**
+	 * State for scanning one log. Not thread-safe.
+	 * Nothing is allocated per line, other than growing the decoding buffer up to the longest line seen.
+	 */
+	public class Session {
+		private final int[] hitOnLine = new int[patternStrings.length];
+		private final int[] hits = new int[patternStrings.length];
+		/**
+		 * True if the pattern at that index has exceeded its step budget and is treated as not matching from then on.
+		 */
+		private final boolean[] disabled = new boolean[patternStrings.length];
+		/**
+		 * Patterns disabled since {@link #takeDisabledPatterns()} was last called.
+		 */
+		private List<String> newlyDisabled = Collections.emptyList();
+		private final Matcher[] matchers = new Matcher[patternStrings.length];
+		private final BoundedCharSequence bounded = new BoundedCharSequence();
+		private int lineNumber = 0;
+
+		private final LiteralAutomaton byteAutomaton;
+		private final CharsetDecoder decoder;
+		private CharBuffer decoded;
+		private ByteBuffer wrapped;
+
+		private Session(Charset charset) {
+			Arrays.fill(hitOnLine, -1);
+			if (charset == null) {
+				byteAutomaton = null;
+				decoder = null;
+			} else {
+				byteAutomaton = getByteAutomaton(charset);
+				decoder = charset.newDecoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			}
+		}
+
+		/**
+		 * @param line A single line of the log, without the line terminator.
+		 * @return The index of the first configured pattern that matches the line, or -1 if none do.
+		 */
+		public int find(CharSequence line) {
+			++lineNumber;
+			int hitCount = 0;
+			int state = automaton.start();
+			int length = line.length();
+			for (int i = 0; i < length; i++) {
+				state = automaton.next(state, symbolOf(line.charAt(i)));
+				hitCount = collectHits(automaton.outputs(state), hitCount);
+			}
+			return resolve(hitCount, line, null, 0, 0);
+		}
+
+		/**
+		 * Only available on sessions created with {@link LogPatternMatcher#newSession(Charset)}.
+		 *
+		 * @param bytes  Buffer holding a single line of the log, without the line terminator.
+		 * @param offset Index of the first byte of the line.
+		 * @param length Number of bytes in the line.
+		 * @return The index of the first configured pattern that matches the line, or -1 if none do.
+		 */
+		public int find(byte[] bytes, int offset, int length) {
+			if (byteAutomaton == null) {
+				return find(decode(bytes, offset, length));
+			}
+
+			++lineNumber;
+			int hitCount = 0;
+			int state = byteAutomaton.start();
+			int end = offset + length;
+			for (int i = offset; i < end; i++) {
+				state = byteAutomaton.next(state, bytes[i] & 0xFF);
+				hitCount = collectHits(byteAutomaton.outputs(state), hitCount);
+			}
+			return resolve(hitCount, null, bytes, offset, length);
+		}
+
+		/**
+		 * @return The patterns that have exceeded their step budget since the last call, and won't be evaluated again in this session.
+		 */
+		public List<String> takeDisabledPatterns() {
+			List<String> result = newlyDisabled;
+			newlyDisabled = Collections.emptyList();
+			return result;
+		}
+
+		private int collectHits(int[] outputs, int hitCount) {
+			for (int id : outputs) {
+				if (hitOnLine[id] != lineNumber) {
+					hitOnLine[id] = lineNumber;
+					hits[hitCount++] = id;
+				}
+			}
+			return hitCount;
+		}
+
+		/**
+		 * Picks the first pattern that matches out of the automaton's hits and the patterns it can't decide.
+		 * If the line is only given as bytes, it is decoded the first time a regular expression needs it.
+		 */
+		private int resolve(int hitCount, CharSequence line, byte[] bytes, int offset, int length) {
+			int best = -1;
+			Arrays.sort(hits, 0, hitCount);
+			for (int i = 0; i < hitCount; i++) {
+				int id = hits[i];
+				if (literalOnly[id]) {
+					best = id;
+					break;
+				}
+				if (line == null) {
+					line = decode(bytes, offset, length);
+				}
+				if (verify(id, line)) {
+					best = id;
+					break;
+				}
+			}
+			for (int id : unguarded) {
+				if (best >= 0 && id > best) {
+					break;
+				}
+				if (line == null) {
+					line = decode(bytes, offset, length);
+				}
+				if (verify(id, line)) {
+					best = id;
+					break;
+				}
+			}
+			return best;
+		}
+
+		private CharSequence decode(byte[] bytes, int offset, int length) {
+			int capacity = (int) (length * decoder.maxCharsPerByte()) + 1;
+			if (decoded == null || decoded.capacity() < capacity) {
+				decoded = CharBuffer.allocate(Math.max(capacity, 256));
+			}
+			if (wrapped == null || wrapped.array() != bytes) {
+				wrapped = ByteBuffer.wrap(bytes);
+			}
+			wrapped.limit(offset + length).position(offset);
+			decoded.clear();
+			decoder.reset();
+			decoder.decode(wrapped, decoded, true);
+			decoder.flush(decoded);
+			decoded.flip();
+			return decoded;
+		}
+
+		private boolean verify(int id, CharSequence line) {
+			if (disabled[id]) {
+				return false;
+			}
+			bounded.reset(line, BASE_STEP_BUDGET + STEPS_PER_CHARACTER * line.length());
+			try {
+				Matcher matcher = matchers[id];
+				if (matcher == null) {
+					matcher = patterns[id].matcher(bounded);
+					matchers[id] = matcher;
+				} else {
+					matcher.reset(bounded);
+				}
+				return matcher.find();
+			} catch (StepBudgetExceededException e) {
+				disabled[id] = true;
+				if (newlyDisabled.isEmpty()) {
+					newlyDisabled = new ArrayList<String>();
+				}
+				newlyDisabled.add(patternStrings[id]);
+				LOGGER.warning("Log pattern '" + patternStrings[id] + "' took too long to evaluate on a line of " + line.length() + " characters. It is treated as not matching for the rest of the log.");
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Returns the text of the given regular expression if it has no special meaning besides escaped punctuation.
+	 *
+	 * @return The unescaped text, or null if the pattern uses any regular expression features.
+	 */
+	static String plainLiteral(String regex) {
+		StringBuilder result = new StringBuilder(regex.length());
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+					return null;
+				}
+				result.append(regex.charAt(++i));
+			} else if ("[](){}.*+?^$|".indexOf(c) >= 0) {
+				return null;
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Finds the longest run of plain text that any match of the given regular expression must contain.
+	 * This is conservative: when in doubt, a run is cut short or no text is returned at all.
+	 *
+	 * @return The required text, or null if none could be determined.
+	 */
+	static String requiredLiteral(String regex) {
+		if (regex.contains("|") || regex.contains("\\Q") || regex.contains("(?")) {
+			return null; //alternation, quoting and inline flags change what is required. Don't guess.
+		}
+
+		String best = "";
+		StringBuilder run = new StringBuilder();
+		int depth = 0;
+		int length = regex.length();
+		for (int i = 0; i < length; i++) {
+			char c = regex.charAt(i);
+			switch (c) {
+				case '\\':
+					if (i + 1 >= length) {
+						return null;
+					}
+					char escaped = regex.charAt(++i);
+					if (!Character.isLetterOrDigit(escaped)) {
+						if (depth == 0) {
+							run.append(escaped);
+						}
+					} else {
+						best = longer(best, run);
+						i = skipEscapePayload(regex, i);
+					}
+					break;
+				case '[':
+					best = longer(best, run);
+					i = skipCharacterClass(regex, i);
+					break;
+				case '(':
+					best = longer(best, run);
+					depth++;
+					break;
+				case ')':
+					best = longer(best, run);
+					depth--;
+					break;
+				case '*':
+				case '?':
+				case '{':
+					//The previous atom is optional (or we don't want to reason about its count).
+					if (run.length() > 0) {
+						run.setLength(run.length() - 1);
+					}
+					best = longer(best, run);
+					if (c == '{') {
+						int close = regex.indexOf('}', i);
+						if (close < 0) {
+							return null;
+						}
+						i = close;
+					}
+					break;
+				case '+':
+				case '.':
+				case '^':
+				case '$':
+					best = longer(best, run);
+					break;
+				default:
+					if (depth == 0) {
+						run.append(c);
+					}
+			}
+		}
+		best = longer(best, run);
+		return best.isEmpty() ? null : best;
+	}
+
+	/**
+	 * Returns the longer of the two values and clears the run.
+	 */
+	private static String longer(String best, StringBuilder run) {
+		String result = run.length() > best.length() ? run.toString() : best;
+		run.setLength(0);
+		return result;
+	}
+
+	/**
+	 * @param index Index of the character after the backslash.
+	 * @return Index of the last character of the escape sequence.
+	 */
+	private static int skipEscapePayload(String regex, int index) {
+		char c = regex.charAt(index);
+		switch (c) {
+			case 'x':
+				if (index + 1 < regex.length() && regex.charAt(index + 1) == '{') {
+					int close = regex.indexOf('}', index);
+					return close < 0 ? regex.length() - 1 : close;
+				}
+				return Math.min(index + 2, regex.length() - 1);
+			case 'u':
+				return Math.min(index + 4, regex.length() - 1);
+			case 'c':
+				return Math.min(index + 1, regex.length() - 1);
+			case 'p':
+			case 'P':
+				if (index + 1 < regex.length() && regex.charAt(index + 1) == '{') {
+					int close = regex.indexOf('}', index);
+					return close < 0 ? regex.length() - 1 : close;
+				}
+				return Math.min(index + 1, regex.length() - 1);
+			default:
+				if (Character.isDigit(c)) {
+					//octal escape or back reference
+					while (index + 1 < regex.length() && Character.isDigit(regex.charAt(index + 1))) {
+						index++;
+					}
+				}
+				return index;
+		}
+	}
+
+	/**
+	 * @param index Index of the opening bracket.
+	 * @return Index of the matching closing bracket.
+	 */
+	private static int skipCharacterClass(String regex, int index) {
+		int depth = 0;
+		for (int i = index; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				depth++;
+				if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+					i++;
+				}
+				if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+					i++; //a leading ']' is literal
+				}
+			} else if (c == ']') {
+				depth--;
+				if (depth == 0) {
+					return i;
+				}
+			}
+		}
+		return regex.length() - 1;
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] result = new int[list.size()];
+		for (int i = 0; i < list.size(); i++) {
+			result[i] = list.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Counts every character read by the regular expression engine and gives up once the budget is spent.
+	 */
+	private static class BoundedCharSequence implements CharSequence {
+		private CharSequence delegate;
+		private final long[] remaining;
+
+		BoundedCharSequence() {
+			this(null, new long[1]);
+		}
+
+		private BoundedCharSequence(CharSequence delegate, long[] remaining) {
+			this.delegate = delegate;
+			this.remaining = remaining;
+		}
+
+		void reset(CharSequence delegate, long budget) {
+			this.delegate = delegate;
+			this.remaining[0] = budget;
+		}
+
+		public int length() {
+			return delegate.length();
+		}
+
+		public char charAt(int index) {
+			if (--remaining[0] < 0) {
+				throw new StepBudgetExceededException();
+			}
+			return delegate.charAt(index);
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			return new BoundedCharSequence(delegate.subSequence(start, end), remaining);
+		}
+
+		@Override
+		public String toString() {
+			return delegate.toString();
+		}
+	}
+
+	private static class StepBudgetExceededException extends RuntimeException {
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this; //thrown as flow control, the stack trace is never used
+		}
+	}
+}
@@ -0,0 +1,332 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Scans a log for the patterns of a {@link LogPatternMatcher} directly on its bytes.
+ * <p/>
+ * The log is read through a {@link FileChannel} into a fixed buffer and split into lines in place.
+ * Lines longer than the maximum line length are only checked up to that length,
+ * so the memory used by a scan is bounded no matter what the log looks like, and nothing is allocated per line.
+ * The read buffer is shared by every scanner on the same thread, so a scanner kept between scans
+ * only holds on to its position, the part of the line it stopped in and the state of its {@link LogPatternMatcher.Session}.
+ * <p/>
+ * A scanner remembers where it stopped, so it can be used to scan a log that is still being written,
+ * a bit at a time. Not thread-safe.
+ * <p/>
+ * Charsets where a line break isn't the single byte '\n', like UTF-16, can't be split into lines on their bytes.
+ * Those logs are decoded and always scanned whole, so they can't be scanned a bit at a time or only at the end (see {@link #canScanPartially()}).
+ */
+public class LogScanner {
+	/**
+	 * Longest part of a line, in bytes, that is checked against the patterns.
+	 */
+	public static final int DEFAULT_MAX_LINE_LENGTH = 64 * 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final ThreadLocal<ByteBuffer> READ_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(BUFFER_SIZE);
+		}
+	};
+	/**
+	 * The most read on either side of a matching line for an excerpt.
+	 */
+	public static final int EXCERPT_WINDOW_BYTES = 2048;
+
+	private final LogPatternMatcher.Session session;
+	private final Charset charset;
+	private final boolean asciiCompatible;
+	private final byte[] line;
+
+	private int lineLength = 0;
+	private boolean skippingPartialLine = false;
+	private long position = 0;
+	private long lineStart = 0;
+	private long matchOffset = -1;
+	private String matchedLine;
+
+	/**
+	 * @param patterns      The patterns to look for.
+	 * @param charset       The charset the log is written in.
+	 * @param maxLineLength Longest part of a line, in bytes, that is checked against the patterns.
+	 */
+	public LogScanner(LogPatternMatcher patterns, Charset charset, int maxLineLength) {
+		this.charset = charset == null ? Charset.defaultCharset() : charset;
+		this.session = patterns.newSession(this.charset);
+		this.asciiCompatible = LogPatternMatcher.isAsciiCompatible(this.charset);
+		this.line = new byte[maxLineLength];
+	}
+
+	/**
+	 * Convenience method that scans a whole log, or only the end of it.
+	 *
+	 * @param log         The log to scan.
+	 * @param patterns    The patterns to look for.
+	 * @param charset     The charset the log is written in.
+	 * @param windowBytes If greater than zero, only roughly this many bytes at the end of the log are scanned.
+	 * @return The index of the first pattern that matched a line, or -1 if none did.
+	 * @throws IOException If the log couldn't be read.
+	 */
+	public static int scan(File log, LogPatternMatcher patterns, Charset charset, long windowBytes) throws IOException {
+		return new LogScanner(patterns, charset, DEFAULT_MAX_LINE_LENGTH).scanComplete(log, windowBytes);
+	}
+
+	/**
+	 * Scans a log that is complete, or only the end of it. {@link #getMatchOffset()} tells where the match was.
+	 *
+	 * @param log         The log to scan.
+	 * @param windowBytes If greater than zero, only roughly this many bytes at the end of the log are scanned.
+	 * @return The index of the first pattern that matched a line, or -1 if none did.
+	 * @throws IOException If the log couldn't be read.
+	 */
+	public int scanComplete(File log, long windowBytes) throws IOException {
+		long length = log.length();
+		if (windowBytes > 0 && length > windowBytes && canScanPartially()) {
+			startAt(length - windowBytes);
+		}
+		int result = scan(log);
+		if (result < 0) {
+			result = finish();
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the line at the given offset of a log, with a few lines on either side of it.
+	 * At most {@link #EXCERPT_WINDOW_BYTES} are read on either side, so long lines are cut off.
+	 *
+	 * @param log          The log to read.
+	 * @param charset      The charset the log is written in. Must be ASCII-compatible, as offsets are only known for those.
+	 * @param lineOffset   The offset of the start of the line, e.g. from {@link #getMatchOffset()}.
+	 * @param contextLines The number of lines to include before and after the line.
+	 * @return The lines, or null if the offset is past the end of the log.
+	 * @throws IOException If the log couldn't be read.
+	 */
+	public static String readExcerpt(File log, Charset charset, long lineOffset, int contextLines) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(log, "r");
+		byte[] bytes;
+		long from;
+		try {
+			long length = file.length();
+			if (lineOffset < 0 || lineOffset >= length) {
+				return null;
+			}
+			from = Math.max(0, lineOffset - EXCERPT_WINDOW_BYTES);
+			long to = Math.min(length, lineOffset + EXCERPT_WINDOW_BYTES);
+			bytes = new byte[(int) (to - from)];
+			file.seek(from);
+			file.readFully(bytes);
+		} finally {
+			file.close();
+		}
+
+		int lineStart = (int) (lineOffset - from);
+		int start = lineStart;
+		for (int lines = 0; start > 0 && lines <= contextLines; ) {
+			if (bytes[start - 1] == '\n' && ++lines > contextLines) {
+				break;
+			}
+			start--;
+		}
+		if (start == 0 && from > 0) {
+			//Don't start in the middle of a line that was cut off.
+			while (start < lineStart && bytes[start++] != '\n') {
+			}
+		}
+		int end = lineStart;
+		for (int lines = 0; end < bytes.length; end++) {
+			if (bytes[end] == '\n' && lines++ >= contextLines) {
+				break;
+			}
+		}
+		while (end > start && (bytes[end - 1] == '\n' || bytes[end - 1] == '\r')) {
+			end--;
+		}
+		return new String(bytes, start, end - start, charset == null ? Charset.defaultCharset() : charset);
+	}
+
+	/**
+	 * Makes the next {@link #scan(java.io.File)} start at the given offset.
+	 * If the offset falls in the middle of a line, that line is skipped since only part of it would be seen.
+	 * A line that starts right at the offset is scanned.
+	 */
+	public void startAt(long offset) {
+		//Starts one byte early, so a line break there ends the skipping before the line at the offset.
+		position = Math.max(0, offset - 1);
+		lineStart = position;
+		lineLength = 0;
+		skippingPartialLine = offset > 0;
+	}
+
+	/**
+	 * @return True if the log can be scanned from an offset, and a bit at a time as it's written.
+	 *         False if the charset of the log means it's always scanned whole.
+	 */
+	public boolean canScanPartially() {
+		return asciiCompatible;
+	}
+
+	/**
+	 * @return The patterns that took too long on a line since the last call, and aren't checked against the rest of the log.
+	 */
+	public List<String> takeDisabledPatterns() {
+		return session.takeDisabledPatterns();
+	}
+
+	/**
+	 * @return The offset of the next byte to be scanned.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return The byte offset of the start of the line that matched,
+	 *         or -1 if nothing has matched or the charset of the log doesn't allow byte offsets.
+	 */
+	public long getMatchOffset() {
+		return matchOffset;
+	}
+
+	/**
+	 * @return The line that matched, cut off at the most line length given, or null if nothing has matched.
+	 */
+	public String getMatchedLine() {
+		return matchedLine;
+	}
+
+	/**
+	 * Scans everything written to the log since the last call.
+	 * The last line is kept until it is terminated or {@link #finish()} is called, since more could still be written to it.
+	 *
+	 * @return The index of the first pattern that matched a line, or -1 if none did.
+	 * @throws IOException If the log couldn't be read.
+	 */
+	public int scan(File log) throws IOException {
+		if (!asciiCompatible) {
+			return scanDecoded(log);
+		}
+
+		ByteBuffer buffer = READ_BUFFER.get();
+		byte[] array = buffer.array();
+		FileInputStream stream = new FileInputStream(log);
+		try {
+			FileChannel channel = stream.getChannel();
+			channel.position(position);
+			while (true) {
+				buffer.clear();
+				int read = channel.read(buffer);
+				if (read <= 0) {
+					break;
+				}
+				int result = feed(array, 0, read);
+				if (result >= 0) {
+					return result;
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		return -1;
+	}
+
+	/**
+	 * Scans the last line of the log, if it wasn't terminated.
+	 * Call once the log is complete.
+	 *
+	 * @return The index of the pattern that matched the last line, or -1 if none did.
+	 */
+	public int finish() {
+		if (skippingPartialLine || lineLength == 0) {
+			return -1;
+		}
+		return endLine();
+	}
+
+	/**
+	 * Scans the given bytes, which are the next bytes of the log.
+	 * Stops at the end of the first line that matches.
+	 */
+	private int feed(byte[] bytes, int offset, int length) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			byte b = bytes[i];
+			position++;
+			if (b == '\n') {
+				if (skippingPartialLine) {
+					skippingPartialLine = false;
+				} else {
+					int result = endLine();
+					if (result >= 0) {
+						return result;
+					}
+				}
+				lineStart = position;
+				lineLength = 0;
+			} else if (!skippingPartialLine && lineLength < line.length) {
+				line[lineLength++] = b;
+			}
+		}
+		return -1;
+	}
+
+	private int endLine() {
+		int length = lineLength;
+		if (length > 0 && line[length - 1] == '\r') {
+			length--;
+		}
+		int result = session.find(line, 0, length);
+		if (result >= 0) {
+			matchOffset = lineStart;
+			matchedLine = new String(line, 0, length, charset);
+		}
+		return result;
+	}
+
+	/**
+	 * Fallback for charsets where a line break isn't a single byte, like UTF-16.
+	 * The whole log is decoded, so it ignores where the last scan stopped, and lines are cut off at the most line length given, in characters.
+	 */
+	private int scanDecoded(File log) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(log), charset);
+		char[] chars = new char[BUFFER_SIZE / 2];
+		StringBuilder text = new StringBuilder();
+		try {
+			for (int read = reader.read(chars); read > 0; read = reader.read(chars)) {
+				for (int i = 0; i < read; i++) {
+					char c = chars[i];
+					if (c == '\n') {
+						int result = endDecodedLine(text);
+						if (result >= 0) {
+							return result;
+						}
+						text.setLength(0);
+					} else if (text.length() < line.length) {
+						text.append(c);
+					}
+				}
+			}
+			return text.length() == 0 ? -1 : endDecodedLine(text);
+		} finally {
+			reader.close();
+			position = log.length();
+			lineLength = 0;
+		}
+	}
+
+	private int endDecodedLine(StringBuilder text) {
+		if (text.length() > 0 && text.charAt(text.length() - 1) == '\r') {
+			text.setLength(text.length() - 1);
+		}
+		int result = session.find(text);
+		if (result >= 0) {
+			matchedLine = text.toString();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,61 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.Extension;
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixConfiguration;
+import hudson.matrix.MatrixRun;
+import hudson.model.listeners.RunListener;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pushes every finished {@link MatrixRun} onto the completion queue of the matrix build that is waiting for it.
+ * This lets {@link SelfHealingMatrixExecutionStrategy} block until something actually finishes instead of polling every configuration.
+ * <p/>
+ * Runs are only pushed after they are finalized, so {@link MatrixRun#isBuilding()} is already false and the log is closed.
+ */
+@Extension
+public class MatrixRunCompletionListener extends RunListener<MatrixRun> {
+	private static final ConcurrentMap<String, BlockingQueue<? super MatrixRun>> completionQueues = new ConcurrentHashMap<String, BlockingQueue<? super MatrixRun>>();
+
+	public MatrixRunCompletionListener() {
+		super(MatrixRun.class);
+	}
+
+	/**
+	 * Starts collecting finished runs for the given build.
+	 * Must be called before any configuration is scheduled, otherwise fast runs could finish before anyone is listening.
+	 *
+	 * @param build The matrix build whose runs should be collected.
+	 * @param queue The queue finished runs will be added to.
+	 */
+	public static void register(MatrixBuild build, BlockingQueue<? super MatrixRun> queue) {
+		completionQueues.put(createKey(build.getParent().getFullName(), build.getNumber()), queue);
+	}
+
+	/**
+	 * Stops collecting finished runs for the given build.
+	 */
+	public static void unregister(MatrixBuild build) {
+		completionQueues.remove(createKey(build.getParent().getFullName(), build.getNumber()));
+	}
+
+	@Override
+	public void onFinalized(MatrixRun run) {
+		MatrixConfiguration configuration = run.getParent();
+		if (configuration == null || configuration.getParent() == null) {
+			return;
+		}
+		//Matrix runs share the build number of the parent build.
+		BlockingQueue<? super MatrixRun> queue = completionQueues.get(createKey(configuration.getParent().getFullName(), run.getNumber()));
+		if (queue != null) {
+			queue.add(run);
+		}
+	}
+
+	private static String createKey(String projectName, int buildNumber) {
+		return projectName + "#" + buildNumber;
+	}
+}
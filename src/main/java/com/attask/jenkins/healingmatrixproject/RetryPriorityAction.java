@@ -0,0 +1,21 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.model.InvisibleAction;
+
+/**
+ * Attached to the queue item of a retry to move it ahead of other work. {@link RetryPrioritySorter} enforces it.
+ * <p/>
+ * The boost is a head start, not a rank: the retry goes ahead of whatever became buildable less than the boost before it,
+ * but anything that has been waiting longer than that still goes first, so a steady stream of retries can't starve other work.
+ */
+public class RetryPriorityAction extends InvisibleAction {
+	private final long boostMillis;
+
+	public RetryPriorityAction(long boostMillis) {
+		this.boostMillis = boostMillis;
+	}
+
+	public long getBoostMillis() {
+		return boostMillis;
+	}
+}
@@ -0,0 +1,89 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Queue;
+import hudson.model.queue.QueueSorter;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves retries with a {@link RetryPriorityAction} ahead in the queue.
+ * <p/>
+ * Wraps whatever sorter the queue already has, e.g. from a priority plugin, instead of being an extension that competes with it.
+ * Items are ordered by that sorter first. Then each retry is moved ahead of the items that became buildable
+ * less than its boost before it, and nothing else changes order.
+ * <p/>
+ * Installed once, when Jenkins starts. Items without a {@link RetryPriorityAction} keep the order they'd have had without it.
+ */
+public class RetryPrioritySorter extends QueueSorter {
+	/**
+	 * The sorter that was installed before this one, or null to keep the queue's own order.
+	 */
+	private final QueueSorter delegate;
+
+	private RetryPrioritySorter(QueueSorter delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Wraps the queue's sorter, unless it's already been wrapped.
+	 * If no sorter has been installed yet, the first {@link QueueSorter} extension is wrapped, which is what Jenkins would have installed.
+	 */
+	@Initializer(after = InitMilestone.JOB_LOADED)
+	public static void install() {
+		Queue queue = Jenkins.getInstance().getQueue();
+		//noinspection SynchronizationOnLocalVariableOrMethodParameter
+		synchronized (queue) {
+			QueueSorter sorter = queue.getSorter();
+			if (sorter == null && !QueueSorter.all().isEmpty()) {
+				sorter = QueueSorter.all().get(0);
+			}
+			if (!(sorter instanceof RetryPrioritySorter)) {
+				queue.setSorter(new RetryPrioritySorter(sorter));
+			}
+		}
+	}
+
+	@Override
+	public void sortBuildableItems(List<Queue.BuildableItem> buildables) {
+		if (delegate != null) {
+			delegate.sortBuildableItems(buildables);
+		}
+
+		List<Queue.BuildableItem> retries = new ArrayList<Queue.BuildableItem>();
+		List<Queue.BuildableItem> result = new ArrayList<Queue.BuildableItem>(buildables.size());
+		for (Queue.BuildableItem item : buildables) {
+			if (item.getAction(RetryPriorityAction.class) == null) {
+				result.add(item);
+			} else {
+				retries.add(item);
+			}
+		}
+		if (retries.isEmpty()) {
+			return;
+		}
+
+		//Retries keep their order among themselves, so each one goes in after the one before it.
+		int position = 0;
+		for (Queue.BuildableItem retry : retries) {
+			long boostedStart = retry.buildableStartMilliseconds - retry.getAction(RetryPriorityAction.class).getBoostMillis();
+			while (position < result.size() && isAhead(result.get(position), boostedStart)) {
+				position++;
+			}
+			result.add(position++, retry);
+		}
+
+		buildables.clear();
+		buildables.addAll(result);
+	}
+
+	/**
+	 * @return True if the given item stays ahead of a retry with the given boosted start: it's another retry, or it has waited longer.
+	 */
+	private static boolean isAhead(Queue.BuildableItem item, long boostedStart) {
+		return item.getAction(RetryPriorityAction.class) != null || item.buildableStartMilliseconds <= boostedStart;
+	}
+}
@@ -0,0 +1,92 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.matrix.MatrixRun;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Follows the logs of matrix runs that are still building, scanning only what was written since the last look.
+ * Used to find a log pattern as soon as it is printed, instead of after the run has finished.
+ * <p/>
+ * Runs are tracked by the full name of their configuration.
+ * Different configurations may be tailed on different threads, but each one must only be tailed by one thread at a time.
+ * <p/>
+ * Every running configuration keeps a {@link LogScanner} between tails, so lines are only checked up to {@link #MAX_LINE_LENGTH}
+ * to keep that small. The whole log is scanned with the usual line length once the run finishes anyway.
+ */
+class RunLogTailer {
+	/**
+	 * Longest part of a line, in bytes, that is checked while a run is still building.
+	 */
+	static final int MAX_LINE_LENGTH = 4 * 1024;
+
+	private final LogPatternMatcher patterns;
+	private final ConcurrentMap<String, Tail> tails = new ConcurrentHashMap<String, Tail>();
+
+	RunLogTailer(LogPatternMatcher patterns) {
+		this.patterns = patterns;
+	}
+
+	/**
+	 * Scans whatever has been written to the log of the given run since the last call.
+	 * Once a run has matched, it isn't scanned again.
+	 * Logs in a charset that can only be scanned whole (see {@link LogScanner#canScanPartially()}) aren't followed at all.
+	 *
+	 * @return The index of the pattern that matched, or -1 if nothing has matched or the match was returned by an earlier call.
+	 * @throws IOException If the log couldn't be read.
+	 */
+	int tail(MatrixRun run) throws IOException {
+		String name = run.getParent().getFullName();
+		Tail tail = tails.get(name);
+		if (tail == null || tail.run != run) {
+			//A retry has the same number as the run before it, so the run itself tells them apart.
+			tail = new Tail(run, new LogScanner(patterns, run.getCharset(), MAX_LINE_LENGTH));
+			tails.put(name, tail);
+		}
+		if (tail.matched >= 0 || !tail.scanner.canScanPartially()) {
+			return -1;
+		}
+
+		tail.matched = tail.scanner.scan(run.getLogFile());
+		return tail.matched;
+	}
+
+	/**
+	 * @return The scanner that found the match in the log of the given configuration's run, which knows where it was and what the line said;
+	 * or null if nothing has matched.
+	 */
+	LogScanner getMatchingScanner(String configurationName) {
+		Tail tail = tails.get(configurationName);
+		return tail == null || tail.matched < 0 ? null : tail.scanner;
+	}
+
+	/**
+	 * @return The patterns that took too long on a line of the given configuration's log since the last call, and aren't checked against the rest of it.
+	 */
+	List<String> takeDisabledPatterns(String configurationName) {
+		Tail tail = tails.get(configurationName);
+		return tail == null ? Collections.<String>emptyList() : tail.scanner.takeDisabledPatterns();
+	}
+
+	/**
+	 * Stops tracking the given configuration's run. Call once it has finished.
+	 */
+	void forget(String configurationName) {
+		tails.remove(configurationName);
+	}
+
+	private static class Tail {
+		private final MatrixRun run;
+		private final LogScanner scanner;
+		private int matched = -1;
+
+		private Tail(MatrixRun run, LogScanner scanner) {
+			this.run = run;
+			this.scanner = scanner;
+		}
+	}
+}
@@ -9,15 +9,23 @@ import hudson.matrix.Messages;
 import hudson.matrix.listeners.MatrixBuildListener;
 import hudson.model.*;
 import hudson.model.Queue;
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.export.Exported;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Almost the same as {@link DefaultMatrixExecutionStrategyImpl} with a few changes.
@@ -25,12 +33,13 @@ import java.util.regex.Pattern;
  * <li>When a job fails, it will automatically be rerun a user-defined number of times.</li>
  * <li>
  * With the default implementation, it waits for the builds to finish in order.
- * If one is still building, it will move on to the next one and find the fastest builds to report on first.
+ * Instead, it blocks until any run finishes (see {@link MatrixRunCompletionListener}) and reports on the fastest builds first.
  * This gives us the ability to immediately retry failed builds if the first build is slower than the others.
  * </li>
  * <li>
- * You cannot currently run jobs "Sequentially" and there is no "Touchstone" build.
- * This is considered a shortcoming and may be implemented in the future.
+ * Like the default implementation, "Touchstone" configurations can be built (and healed) before the rest.
+ * Instead of running everything "Sequentially", the rest can be released in waves of a given size.
+ * If the touchstones or a wave end worse than the touchstone result condition, nothing after them is built.
  * </li>
  * </ul>
  * <p/>
@@ -41,21 +50,115 @@ import java.util.regex.Pattern;
 public class SelfHealingMatrixExecutionStrategy extends MatrixExecutionStrategy {
 	private static final Logger LOGGER = Logger.getLogger("healing-matrix-project");
 
+	/**
+	 * How long the coordinator waits for a run to finish before checking every configuration anyway.
+	 * Finished runs wake the coordinator immediately, so this only affects how quickly queue blockage is reported.
+	 */
+	private static final long QUEUE_CHECK_INTERVAL_MILLIS = 10000;
+
+	/**
+	 * How often the logs of running configurations are checked when {@link #getAbortOnPatternMatch()} is on.
+	 */
+	private static final long TAIL_INTERVAL_MILLIS = 5000;
+
+	/**
+	 * Number of threads per build that scan the logs of finished runs and archive the ones being rerun.
+	 */
+	private static final int POST_PROCESSING_THREADS = Integer.getInteger(SelfHealingMatrixExecutionStrategy.class.getName() + ".postProcessingThreads", 4);
+
+	/**
+	 * How long to wait before trying again to put a configuration the queue rejected into it. Doubles with every rejection.
+	 */
+	private static final long SUBMIT_BACKOFF_MILLIS = 500;
+	private static final long MAX_SUBMIT_BACKOFF_MILLIS = 30000;
+
+	/**
+	 * A configuration needs to have been rerun in at least this many builds before its history changes how often it's rerun.
+	 */
+	private static final int MIN_RETRIED_BUILDS_FOR_HISTORY = 5;
+
+	/**
+	 * A configuration whose reruns have helped at least this often gets one more rerun than {@link #getMaxRetries()}.
+	 */
+	private static final double RELIABLE_HEAL_RATE = 0.8;
+
+	/**
+	 * A configuration whose reruns have never helped still gets its reruns in every build this many builds apart,
+	 * so it can earn them back once whatever kept them from helping has been fixed.
+	 */
+	static final int HEAL_PROBE_INTERVAL_BUILDS = 10;
+
+	/**
+	 * The wait between batches of reruns held back by {@link #getSystemicFailureThreshold()} doubles up to this many times.
+	 */
+	private static final int MAX_SYSTEMIC_FAILURE_BACKOFF_DOUBLINGS = 4;
+
+	/**
+	 * How long a retry is kept off the nodes where earlier attempts failed.
+	 * After this, any node may take it, so a configuration that only one node can build still gets rerun.
+	 */
+	private static final long NODE_EXCLUSION_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(Integer.getInteger(SelfHealingMatrixExecutionStrategy.class.getName() + ".nodeExclusionTimeoutMinutes", 30));
+
 	private final String logPattern;
 	private final Result worseThanOrEqualTo;
 	private final Result betterThanOrEqualTo;
 	private final int maxRetries;
 	private final boolean stopRetryingAfterOneFails;
+	private final int scanLastMegabytes;
+	private final boolean abortOnPatternMatch;
+	private final boolean compressHealedLogs;
+	private final int healedLogsToKeep;
+	private final int healedLogMegabytesToKeep;
+	private final int healedLogDaysToKeep;
+	private final boolean avoidFailedNodes;
+	private final int nodeFailureThreshold;
+	private final String touchStoneCombinationFilter;
+	private final Result touchStoneResultCondition;
+	private final int configurationsPerWave;
+	private final String retryBudget;
+	private final int circuitBreakerWindow;
+	private final int circuitBreakerFailurePercent;
+	private final boolean useFlakinessHistory;
+	private final int systemicFailureThreshold;
+	private final int systemicFailureBackoffSeconds;
+	private final boolean stopRetryingSystemicFailures;
+	private final boolean failFast;
+	private final Result failFastResultCondition;
+	private final int retryPriorityBoostSeconds;
+
+	private transient volatile LogPatternMatcher logPatternMatcher;
 
 	@Deprecated @SuppressWarnings("UnusedDeclaration") private final transient int quietPeriodSeconds = 0; // Backwards compatibility
 
 	@DataBoundConstructor
-	public SelfHealingMatrixExecutionStrategy(String logPattern, Result worseThanOrEqualTo, Result betterThanOrEqualTo, int maxRetries, boolean stopRetryingAfterOneFails) {
+	public SelfHealingMatrixExecutionStrategy(String logPattern, Result worseThanOrEqualTo, Result betterThanOrEqualTo, int maxRetries, boolean stopRetryingAfterOneFails, int scanLastMegabytes, boolean abortOnPatternMatch, boolean compressHealedLogs, int healedLogsToKeep, int healedLogMegabytesToKeep, int healedLogDaysToKeep, boolean avoidFailedNodes, int nodeFailureThreshold, String touchStoneCombinationFilter, Result touchStoneResultCondition, int configurationsPerWave, String retryBudget, int circuitBreakerWindow, int circuitBreakerFailurePercent, boolean useFlakinessHistory, int systemicFailureThreshold, int systemicFailureBackoffSeconds, boolean stopRetryingSystemicFailures, boolean failFast, Result failFastResultCondition, int retryPriorityBoostSeconds) {
 		this.logPattern = logPattern == null ? "" : logPattern;
 		this.worseThanOrEqualTo = worseThanOrEqualTo == null ? Result.FAILURE : worseThanOrEqualTo;
 		this.betterThanOrEqualTo = betterThanOrEqualTo == null ? Result.ABORTED : betterThanOrEqualTo.isWorseOrEqualTo(this.worseThanOrEqualTo) ? betterThanOrEqualTo : this.worseThanOrEqualTo;
 		this.maxRetries = maxRetries < 0 ? 1 : maxRetries;
 		this.stopRetryingAfterOneFails = stopRetryingAfterOneFails;
+		this.scanLastMegabytes = scanLastMegabytes < 0 ? 0 : scanLastMegabytes;
+		this.abortOnPatternMatch = abortOnPatternMatch;
+		this.compressHealedLogs = compressHealedLogs;
+		this.healedLogsToKeep = healedLogsToKeep < 0 ? 0 : healedLogsToKeep;
+		this.healedLogMegabytesToKeep = healedLogMegabytesToKeep < 0 ? 0 : healedLogMegabytesToKeep;
+		this.healedLogDaysToKeep = healedLogDaysToKeep < 0 ? 0 : healedLogDaysToKeep;
+		this.avoidFailedNodes = avoidFailedNodes;
+		this.nodeFailureThreshold = nodeFailureThreshold < 0 ? 0 : nodeFailureThreshold;
+		this.touchStoneCombinationFilter = Util.fixEmptyAndTrim(touchStoneCombinationFilter);
+		this.touchStoneResultCondition = touchStoneResultCondition == null ? Result.SUCCESS : touchStoneResultCondition;
+		this.configurationsPerWave = configurationsPerWave < 0 ? 0 : configurationsPerWave;
+		this.retryBudget = Util.fixEmptyAndTrim(retryBudget);
+		this.circuitBreakerWindow = circuitBreakerWindow <= 0 ? 10 : circuitBreakerWindow;
+		this.circuitBreakerFailurePercent = circuitBreakerFailurePercent < 0 ? 0 : Math.min(100, circuitBreakerFailurePercent);
+		this.useFlakinessHistory = useFlakinessHistory;
+		this.systemicFailureThreshold = systemicFailureThreshold < 0 ? 0 : systemicFailureThreshold;
+		this.systemicFailureBackoffSeconds = systemicFailureBackoffSeconds < 0 ? 0 : systemicFailureBackoffSeconds;
+		this.stopRetryingSystemicFailures = stopRetryingSystemicFailures;
+		this.failFast = failFast;
+		this.failFastResultCondition = failFastResultCondition == null ? Result.UNSTABLE : failFastResultCondition;
+		this.retryPriorityBoostSeconds = retryPriorityBoostSeconds < 0 ? 0 : retryPriorityBoostSeconds;
+		this.logPatternMatcher = LogPatternMatcher.compile(this.logPattern);
 	}
 
 	/**
@@ -101,129 +204,1094 @@ public class SelfHealingMatrixExecutionStrategy extends MatrixExecutionStrategy
 		return stopRetryingAfterOneFails;
 	}
 
+	/**
+	 * Only the last this-many megabytes of a log are scanned for {@link #getLogPattern()}.
+	 * The error that makes a build worth retrying is nearly always near the end of the log.
+	 * Default is '0', which scans the whole log.
+	 */
+	@Exported
+	public int getScanLastMegabytes() {
+		return scanLastMegabytes;
+	}
+
+	/**
+	 * If true, the logs of running configurations are followed while they build.
+	 * As soon as a line matches {@link #getLogPattern()}, the run is aborted and retried instead of holding an executor until it fails on its own.
+	 * Has no effect if there are no log patterns.
+	 */
+	@Exported
+	public boolean getAbortOnPatternMatch() {
+		return abortOnPatternMatch;
+	}
+
+	/**
+	 * If true, the logs of failed attempts are gzipped when they're archived.
+	 */
+	@Exported
+	public boolean getCompressHealedLogs() {
+		return compressHealedLogs;
+	}
+
+	/**
+	 * The most logs of failed attempts kept per build. The newest are kept.
+	 * Default is '0', which keeps them all.
+	 */
+	@Exported
+	public int getHealedLogsToKeep() {
+		return healedLogsToKeep;
+	}
+
+	/**
+	 * The most disk space, in megabytes, the logs of failed attempts may use per build. The newest are kept.
+	 * Default is '0', which keeps them all.
+	 */
+	@Exported
+	public int getHealedLogMegabytesToKeep() {
+		return healedLogMegabytesToKeep;
+	}
+
+	/**
+	 * Logs of failed attempts older than this many days are removed.
+	 * Default is '0', which keeps them forever.
+	 */
+	@Exported
+	public int getHealedLogDaysToKeep() {
+		return healedLogDaysToKeep;
+	}
+
+	/**
+	 * If true, a configuration is rerun on a different node than the ones its earlier attempts failed on, if another node is free in time.
+	 */
+	@Exported
+	public boolean getAvoidFailedNodes() {
+		return avoidFailedNodes;
+	}
+
+	/**
+	 * Once this many runs of a matrix build have failed on the same node and been retried, no retry of that build runs there.
+	 * Default is '0', which never excludes a node because of the failures of other configurations.
+	 */
+	@Exported
+	public int getNodeFailureThreshold() {
+		return nodeFailureThreshold;
+	}
+
+	/**
+	 * Combination filter that picks the configurations built first, before any other configuration is scheduled.
+	 * Null if there are no touchstone configurations.
+	 */
+	@Exported
+	public String getTouchStoneCombinationFilter() {
+		return touchStoneCombinationFilter;
+	}
+
+	/**
+	 * The touchstone configurations, and every wave, must end with this result or better, after healing, for the next ones to be built.
+	 * Default is 'SUCCESS'.
+	 */
+	@Exported
+	public Result getTouchStoneResultCondition() {
+		return touchStoneResultCondition == null ? Result.SUCCESS : touchStoneResultCondition;
+	}
+
+	/**
+	 * The most configurations scheduled at once, after the touchstones. The next wave starts once the current one, including its retries, has finished.
+	 * Default is '0', which schedules them all at once.
+	 */
+	@Exported
+	public int getConfigurationsPerWave() {
+		return configurationsPerWave;
+	}
+
+	/**
+	 * The most reruns for a whole matrix build, either a number (e.g. '10') or a percentage of the configurations being built (e.g. '25%').
+	 * Once it is used up, nothing else is retried. Null if there is no limit besides {@link #getMaxRetries()}.
+	 */
+	@Exported
+	public String getRetryBudget() {
+		return retryBudget;
+	}
+
+	/**
+	 * The number of most recently finished runs {@link #getCircuitBreakerFailurePercent()} looks at.
+	 */
+	@Exported
+	public int getCircuitBreakerWindow() {
+		return circuitBreakerWindow <= 0 ? 10 : circuitBreakerWindow;
+	}
+
+	/**
+	 * Once this percentage or more of the last {@link #getCircuitBreakerWindow()} finished runs failed, reruns are held back
+	 * until enough runs pass to bring the rate back down. Usually means something is broken for everyone, so retrying would only waste executors.
+	 * Default is '0', which never holds reruns back.
+	 */
+	@Exported
+	public int getCircuitBreakerFailurePercent() {
+		return circuitBreakerFailurePercent;
+	}
+
+	/**
+	 * If true, how often a configuration has been healed by reruns in earlier builds changes how often it is rerun.
+	 * A configuration that never heals isn't rerun at all, and one that reliably heals gets one more rerun than {@link #getMaxRetries()}.
+	 * The history is kept by {@link FlakinessHistory} either way.
+	 */
+	@Exported
+	public boolean getUseFlakinessHistory() {
+		return useFlakinessHistory;
+	}
+
+	/**
+	 * Once this many configurations of a build have failed with the same line (see {@link FailureSignature}),
+	 * it's taken to be one shared cause, like an outage, rather than each being flaky.
+	 * Their reruns are then held back and released together after {@link #getSystemicFailureBackoffSeconds()},
+	 * or not done at all if {@link #getStopRetryingSystemicFailures()} is set.
+	 * Default is '0', which judges every configuration on its own.
+	 */
+	@Exported
+	public int getSystemicFailureThreshold() {
+		return systemicFailureThreshold;
+	}
+
+	/**
+	 * How long reruns held back by {@link #getSystemicFailureThreshold()} wait before being released as one batch.
+	 * Doubles with every batch of the same failure, up to 16 times as long.
+	 */
+	@Exported
+	public int getSystemicFailureBackoffSeconds() {
+		return systemicFailureBackoffSeconds;
+	}
+
+	/**
+	 * If true, configurations that failed the same way as {@link #getSystemicFailureThreshold()} others aren't rerun at all.
+	 */
+	@Exported
+	public boolean getStopRetryingSystemicFailures() {
+		return stopRetryingSystemicFailures;
+	}
+
+	/**
+	 * If true, once the result of the build is worse than {@link #getFailFastResultCondition()}, nothing else is built or rerun:
+	 * configurations still in the queue are taken out of it and running ones are aborted.
+	 * Only results that are final count, so a run that is going to be rerun doesn't set it off.
+	 */
+	@Exported
+	public boolean getFailFast() {
+		return failFast;
+	}
+
+	/**
+	 * The worst result the build may still end up with before {@link #getFailFast()} stops it. Default is 'UNSTABLE'.
+	 */
+	@Exported
+	public Result getFailFastResultCondition() {
+		return failFastResultCondition == null ? Result.UNSTABLE : failFastResultCondition;
+	}
+
+	/**
+	 * How far ahead of other work in the queue a retry goes, in seconds of waiting (see {@link RetryPrioritySorter}).
+	 * A retry goes ahead of anything that became buildable less than this before it, so nothing waits longer than this because of retries.
+	 * Default is '0', which leaves retries at the back of the queue.
+	 */
+	@Exported
+	public int getRetryPriorityBoostSeconds() {
+		return retryPriorityBoostSeconds;
+	}
+
+	/**
+	 * Works out how many reruns a build may have from {@link #getRetryBudget()}.
+	 *
+	 * @param budget             A number of reruns, or a percentage of the configurations being built.
+	 * @param configurationCount The number of configurations being built.
+	 * @return The most reruns allowed, or -1 if there is no limit.
+	 * @throws NumberFormatException If the budget is neither.
+	 */
+	static int parseRetryBudget(String budget, int configurationCount) {
+		if (budget == null) {
+			return -1;
+		}
+		if (budget.endsWith("%")) {
+			int percent = Integer.parseInt(budget.substring(0, budget.length() - 1).trim());
+			if (percent < 0) {
+				throw new NumberFormatException("The retry budget can't be negative: " + budget);
+			}
+			return (int) Math.ceil(configurationCount * percent / 100.0);
+		}
+		int count = Integer.parseInt(budget);
+		if (count < 0) {
+			throw new NumberFormatException("The retry budget can't be negative: " + budget);
+		}
+		return count;
+	}
+
+	/**
+	 * @return True if any limit on how many logs of failed attempts are kept has been set.
+	 */
+	public boolean hasHealedLogRetention() {
+		return getHealedLogsToKeep() > 0 || getHealedLogMegabytesToKeep() > 0 || getHealedLogDaysToKeep() > 0;
+	}
+
+	/**
+	 * All of the patterns from {@link #getLogPattern()}, compiled once when the configuration is saved or first used after loading.
+	 */
+	public LogPatternMatcher getLogPatternMatcher() {
+		LogPatternMatcher result = logPatternMatcher;
+		if (result == null) {
+			result = LogPatternMatcher.compile(getLogPattern());
+			logPatternMatcher = result;
+		}
+		return result;
+	}
+
 	@Override
 	public Result run(MatrixBuild.MatrixBuildExecution execution) throws InterruptedException, IOException {
 		if (!notifyStartBuild(execution.getAggregators(), execution.getListener())) {
 			return Result.FAILURE;
 		}
 
-		List<Pattern> patterns = createPatternsList();
-
-		Map<MatrixConfiguration, Integer> retries = new HashMap<MatrixConfiguration, Integer>();
-		LinkedList<MatrixConfiguration> runningConfigurations = scheduleMatrixRuns(execution, retries);
-		return waitForMatrixRuns(execution, patterns, retries, runningConfigurations);
+		final MatrixBuild build = (MatrixBuild) execution.getBuild();
+		ExecutionState state = new ExecutionState(execution, getLogPatternMatcher());
+		// filter the parent actions for those that can be passed to the individual jobs.
+		state.childActions.addAll(Util.filter(build.getActions(), MatrixChildAction.class));
+		state.childActions.addAll(build.getActions(ParametersAction.class));
+		state.history = FlakinessHistory.forProject(execution.getProject());
+		build.addAction(state.stats);
+		try {
+			state.retryBudget = parseRetryBudget(getRetryBudget(), execution.getActiveConfigurations().size());
+		} catch (NumberFormatException e) {
+			execution.getListener().error("Ignoring invalid retry budget: " + e.getMessage());
+		}
+		checkRetryBudget(state);
+		if (getAbortOnPatternMatch() && !state.patterns.isEmpty()) {
+			state.tailer = new RunLogTailer(state.patterns);
+		}
+		state.postProcessors = Executors.newFixedThreadPool(POST_PROCESSING_THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Self-healing post-processing for " + build);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		MatrixRunCompletionListener.register(build, state.events);
+		try {
+			List<List<MatrixConfiguration>> stages = createStages(state);
+			boolean hasTouchStones = stages.size() > 1 && getTouchStoneCombinationFilter() != null && isTouchStone(execution, stages.get(0).get(0));
+			for (int i = 0; i < stages.size(); i++) {
+				state.stageResult = Result.SUCCESS;
+				scheduleMatrixRuns(state, stages.get(i));
+				waitForMatrixRuns(state);
+				if (i + 1 < stages.size() && state.failingFast) {
+					execution.getListener().getLogger().println("Failing fast, so not building the remaining configurations.");
+					break;
+				}
+				if (i + 1 < stages.size() && state.stageResult.isWorseThan(getTouchStoneResultCondition())) {
+					String stageName = i == 0 && hasTouchStones ? "Touchstone configurations" : "Wave " + (i + 1);
+					execution.getListener().getLogger().printf("%s resulted in %s, so not building the remaining configurations.%n", stageName, state.stageResult);
+					break;
+				}
+			}
+			return state.finalResult;
+		} finally {
+			MatrixRunCompletionListener.unregister(build);
+			state.postProcessors.shutdownNow();
+		}
 	}
 
 	/**
-	 * Schedules the initial runs of the matrix runs.
+	 * Splits the configurations to build into the groups that are built one after another:
+	 * the touchstone configurations, if any, then the rest in waves of {@link #getConfigurationsPerWave()}.
+	 * Only a subset of the configurations passed in the execution field are built, since plugins can reject specific axises from running.
+	 * <p/>
+	 * Within each group, the configurations expected to take longest are scheduled first (see {@link #sortLongestFirst}),
+	 * so the slowest ones, and their retries, don't become the tail of the build.
 	 *
-	 * @param execution Provided by the plugin.
-	 * @param retries   Mutable map that is used to track the number of times a configuration has been run.
-	 *                  The map is populated with '0' for every configuration scheduled.
-	 * @return List of configurations scheduled.
-	 *         This is a subset of the configurations passed in the execution field, since plugins can reject specific axises from running.
+	 * @return Every group to build, in order. Never contains an empty group.
 	 */
-	private LinkedList<MatrixConfiguration> scheduleMatrixRuns(MatrixBuild.MatrixBuildExecution execution, Map<MatrixConfiguration, Integer> retries) throws InterruptedException {
+	private List<List<MatrixConfiguration>> createStages(ExecutionState state) {
+		MatrixBuild.MatrixBuildExecution execution = state.execution;
 		MatrixBuild build = (MatrixBuild) execution.getBuild();
-		LinkedList<MatrixConfiguration> configurations = new LinkedList<MatrixConfiguration>();
+		List<MatrixConfiguration> touchStones = new ArrayList<MatrixConfiguration>();
+		List<MatrixConfiguration> others = new ArrayList<MatrixConfiguration>();
 		for (MatrixConfiguration configuration : execution.getActiveConfigurations()) {
 			if (MatrixBuildListener.buildConfiguration(build, configuration)) {
-				int defaultRetriedCount = 0;
-				retries.put(configuration, defaultRetriedCount);
-				configurations.add(configuration);
-				scheduleConfigurationBuild(execution, configuration, new Cause.UpstreamCause((Run) build));
+				if (getTouchStoneCombinationFilter() != null && isTouchStone(execution, configuration)) {
+					touchStones.add(configuration);
+				} else {
+					others.add(configuration);
+				}
+			}
+		}
+
+		sortLongestFirst(touchStones, state.history);
+		sortLongestFirst(others, state.history);
+
+		List<List<MatrixConfiguration>> stages = new ArrayList<List<MatrixConfiguration>>();
+		if (!touchStones.isEmpty()) {
+			stages.add(touchStones);
+		}
+		int waveSize = getConfigurationsPerWave() > 0 ? getConfigurationsPerWave() : Math.max(1, others.size());
+		for (int i = 0; i < others.size(); i += waveSize) {
+			stages.add(others.subList(i, Math.min(others.size(), i + waveSize)));
+		}
+		return stages;
+	}
+
+	/**
+	 * Sorts the given configurations by how long they're expected to take, longest first.
+	 * The expected time is the usual duration from the {@link FlakinessHistory}, stretched by how often the configuration needs a rerun.
+	 * Configurations without a known duration go first, since they could be the longest of all. Otherwise the order is kept.
+	 */
+	private static void sortLongestFirst(List<MatrixConfiguration> configurations, FlakinessHistory history) {
+		final Map<MatrixConfiguration, Double> expectedMillis = new HashMap<MatrixConfiguration, Double>();
+		for (MatrixConfiguration configuration : configurations) {
+			FlakinessHistory.ConfigurationHistory configurationHistory = history.get(configuration.getName());
+			long duration = configurationHistory == null ? -1 : configurationHistory.getAverageDurationMillis();
+			expectedMillis.put(configuration, duration < 0 ? Double.MAX_VALUE : duration * (1 + configurationHistory.getFlakeRate()));
+		}
+		Collections.sort(configurations, new Comparator<MatrixConfiguration>() {
+			public int compare(MatrixConfiguration a, MatrixConfiguration b) {
+				return Double.compare(expectedMillis.get(b), expectedMillis.get(a));
 			}
+		});
+	}
+
+	private boolean isTouchStone(MatrixBuild.MatrixBuildExecution execution, MatrixConfiguration configuration) {
+		return configuration.getCombination().evalGroovyExpression(execution.getProject().getAxes(), getTouchStoneCombinationFilter());
+	}
+
+	/**
+	 * Schedules the initial runs of the given configurations.
+	 * Every configuration scheduled is added to {@link ExecutionState#pending}, given a retry count of '0' and has its most retries decided.
+	 *
+	 * @param state          Everything tracked for the current build.
+	 * @param configurations The configurations to schedule.
+	 */
+	private void scheduleMatrixRuns(ExecutionState state, List<MatrixConfiguration> configurations) {
+		MatrixBuild build = (MatrixBuild) state.execution.getBuild();
+		for (MatrixConfiguration configuration : configurations) {
+			int defaultRetriedCount = 0;
+			state.retries.put(configuration, defaultRetriedCount);
+			state.maxRetries.put(configuration, decideMaxRetries(state, configuration));
+			state.stats.addConfiguration();
+			state.matchedPatterns.put(configuration, new ArrayList<String>());
+			state.pending.put(configuration.getFullName(), configuration);
+			state.submissions.add(new Submission(configuration, new Cause.UpstreamCause((Run) build), Collections.<Action>emptyList()));
 		}
-		return configurations;
+		submitDue(state);
 	}
 
 	/**
-	 * Waits for the given configurations to finish, retrying any that qualify to be rerun.
+	 * Waits for the pending configurations to finish, retrying any that qualify to be rerun.
+	 * <p/>
+	 * The coordinator blocks on {@link ExecutionState#events} instead of polling every configuration.
+	 * Scanning logs, following the logs of running configurations, archiving logs and deleting runs happen on {@link ExecutionState#postProcessors},
+	 * so one big log doesn't hold up the retries of everything else that finished at the same time.
+	 * Only the coordinator decides on retries and notifies the aggregators, so aggregators are never called concurrently.
+	 * Reruns held back by a {@link SignatureGroup} keep it waiting until their batch is released.
+	 * <p/>
+	 * The worst result of the runs is combined into {@link ExecutionState#finalResult} and {@link ExecutionState#stageResult}.
+	 * If a build was rerun, only the result of the rerun is considered.
 	 *
-	 * @param execution      Provided by the plugin.
-	 * @param patterns       List of regular expression patterns used to scan the log to determine if a build should be rerun.
-	 * @param retries        Mutable map that tracks the number of times a specific configuration has been retried.
-	 * @param configurations The configurations that have already been scheduled to run that should be waited for to finish.
-	 * @return The worst result of all the runs. If a build was rerun, only the result of the rerun is considered.
+	 * @param state Everything tracked for the current build.
 	 * @throws InterruptedException
 	 * @throws IOException
 	 */
-	private Result waitForMatrixRuns(MatrixBuild.MatrixBuildExecution execution, List<Pattern> patterns, Map<MatrixConfiguration, Integer> retries, LinkedList<MatrixConfiguration> configurations) throws InterruptedException, IOException {
-		BuildListener listener = execution.getListener();
-		PrintStream logger = listener.getLogger();
-
-		Map<String, String> whyBlockedMap = new HashMap<String, String>();//keep track of why builds are blocked so we can print unique messages when they change.
-		Result finalResult = Result.SUCCESS;
-		int iteration = 0;
-		boolean continueRetrying = true;
-		while (!configurations.isEmpty()) {
-			++iteration;
-			MatrixConfiguration configuration = configurations.removeFirst();
-			if (isBuilding(execution, configuration, whyBlockedMap)) {
-				if (iteration >= configurations.size()) {
-					//Every time we loop through all the configurations, sleep for a bit.
-					//This is to prevent polling too often while everything is still building.
-					iteration = 0;
-					Thread.sleep(1000);
+	private void waitForMatrixRuns(ExecutionState state) throws InterruptedException, IOException {
+		Set<MatrixConfiguration> candidates = new LinkedHashSet<MatrixConfiguration>();
+		long nextQueueCheck = System.currentTimeMillis() + QUEUE_CHECK_INTERVAL_MILLIS;
+		long nextTail = System.currentTimeMillis() + TAIL_INTERVAL_MILLIS;
+		while (!state.pending.isEmpty() || state.inFlight > 0 || state.heldBySignature > 0) {
+			candidates.clear();
+			long wakeUp = state.tailer == null ? nextQueueCheck : Math.min(nextQueueCheck, nextTail);
+			for (Submission submission : state.submissions) {
+				wakeUp = Math.min(wakeUp, submission.notBefore);
+			}
+			for (SignatureGroup group : state.signatureGroups.values()) {
+				if (!group.held.isEmpty()) {
+					wakeUp = Math.min(wakeUp, group.releaseAt);
+				}
+			}
+			if (state.failingFast) {
+				wakeUp = Math.min(wakeUp, state.nextFailFastSweep);
+			}
+			Object event = state.events.poll(Math.max(0, wakeUp - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			long busySince = System.nanoTime();
+			for (; event != null; event = state.events.poll()) {
+				if (event instanceof MatrixRun) {
+					addCandidate(state, (MatrixRun) event, candidates);
+				} else if (event instanceof ScanResult) {
+					state.inFlight--;
+					onScanned(state, (ScanResult) event);
+				} else if (event instanceof ArchiveResult) {
+					state.inFlight--;
+					onArchived(state, (ArchiveResult) event);
+				} else if (event instanceof TailResult) {
+					state.inFlight--;
+					onTailed(state, (TailResult) event);
+				}
+			}
+
+			long now = System.currentTimeMillis();
+			if (now >= nextQueueCheck) {
+				//Check everything once in a while, which also reports queue blockage
+				// and catches anything that ended without being finalized.
+				candidates.addAll(state.pending.values());
+				acceptVanishedConfigurations(state);
+				nextQueueCheck = now + QUEUE_CHECK_INTERVAL_MILLIS;
+			}
+
+			//Finished runs go first, so their retries aren't held up by following the logs of the ones still building.
+			for (MatrixConfiguration configuration : candidates) {
+				if (!state.pending.containsKey(configuration.getFullName()) || isBuilding(state.execution, configuration, state.whyBlockedMap)) {
+					//Either handled already in this pass, or the completion belonged to a run that has since been retried.
+					continue;
+				}
+				state.pending.remove(configuration.getFullName());
+				onFinished(state, configuration);
+			}
+
+			if (state.tailer != null && now >= nextTail) {
+				tailRunningConfigurations(state);
+				nextTail = now + TAIL_INTERVAL_MILLIS;
+			}
+
+			if (!state.held.isEmpty() && (!state.circuitOpen || !state.continueRetrying)) {
+				List<ScanResult> released = new ArrayList<ScanResult>(state.held);
+				state.held.clear();
+				for (ScanResult scanned : released) {
+					onScanned(state, scanned);
 				}
-				configurations.add(configuration);
+			}
+			if (state.heldBySignature > 0) {
+				releaseSignatureGroups(state);
+			}
+			if (state.failingFast && System.currentTimeMillis() >= state.nextFailFastSweep) {
+				cancelRemainingRuns(state);
+				state.nextFailFastSweep = System.currentTimeMillis() + QUEUE_CHECK_INTERVAL_MILLIS;
+			}
+			//Retries that came in during this pass go to the queue together.
+			submitDue(state);
+			state.stats.addCoordinatorIteration(System.nanoTime() - busySince);
+		}
+
+		//Nothing is left running that could bring the failure rate down.
+		for (ScanResult scanned : state.held) {
+			state.execution.getListener().error(String.format("%s was held back by the circuit breaker until nothing else was left running. Accepting result.", scanned.run));
+			accept(state, scanned.configuration, scanned.run);
+		}
+		state.held.clear();
+	}
+
+	/**
+	 * Stops every configuration still being waited on, once the build is failing fast.
+	 * Configurations that haven't left the queue, or haven't been put in it yet, are taken out and count as finished without a run.
+	 * Running ones are aborted, and are accepted like any other run when they finish, so the aggregators still see them,
+	 * but being aborted doesn't count towards the result of the build.
+	 * A configuration on its way from the queue to an executor can't be stopped yet, so this is repeated until nothing is left.
+	 */
+	private void cancelRemainingRuns(ExecutionState state) throws IOException, InterruptedException {
+		BuildListener listener = state.execution.getListener();
+		int buildNumber = state.execution.getBuild().getNumber();
+		Set<String> notSubmitted = new HashSet<String>();
+		for (Submission submission : state.submissions) {
+			notSubmitted.add(submission.configuration.getFullName());
+		}
+		state.submissions.clear();
+
+		Queue queue = Jenkins.getInstance().getQueue();
+		for (MatrixConfiguration configuration : new ArrayList<MatrixConfiguration>(state.pending.values())) {
+			MatrixRun run = configuration.getBuildByNumber(buildNumber);
+			if (run != null) {
+				Executor executor = run.getExecutor();
+				if (run.isBuilding() && executor != null && !executor.isInterrupted()) {
+					listener.getLogger().println(String.format("Aborting %s, since this build is failing fast.", run));
+					executor.interrupt(Result.ABORTED);
+					state.abortedByFailFast.add(configuration.getFullName());
+				}
+			} else if (notSubmitted.contains(configuration.getFullName()) || queue.cancel(configuration)) {
+				listener.getLogger().println(String.format("Cancelled %s, since this build is failing fast.", configuration.getFullDisplayName()));
+				state.pending.remove(configuration.getFullName());
+				accept(state, configuration, null);
+			}
+		}
+	}
+
+	/**
+	 * Counts a configuration as finished without a run if it has neither a run nor a queue item, and isn't waiting to be put in the queue,
+	 * on two checks in a row, e.g. because someone cancelled its queue item. {@link #isBuilding} can't tell that apart
+	 * from a run that has just left the queue and hasn't started yet, which is why it has to be seen twice.
+	 */
+	private void acceptVanishedConfigurations(ExecutionState state) throws IOException, InterruptedException {
+		Set<String> submitting = new HashSet<String>();
+		for (Submission submission : state.submissions) {
+			submitting.add(submission.configuration.getFullName());
+		}
+		int buildNumber = state.execution.getBuild().getNumber();
+		Set<String> vanished = new HashSet<String>();
+		for (MatrixConfiguration configuration : new ArrayList<MatrixConfiguration>(state.pending.values())) {
+			String name = configuration.getFullName();
+			if (submitting.contains(name) || configuration.getBuildByNumber(buildNumber) != null || configuration.getQueueItem() != null) {
 				continue;
 			}
+			if (state.vanished.contains(name)) {
+				state.execution.getListener().error(String.format("%s is neither in the queue nor building. Counting it as finished.", configuration.getFullDisplayName()));
+				state.pending.remove(name);
+				accept(state, configuration, null);
+			} else {
+				vanished.add(name);
+			}
+		}
+		state.vanished = vanished;
+	}
 
-			Run parentBuild = execution.getBuild();
-			MatrixRun matrixRun = configuration.getBuildByNumber(parentBuild.getNumber());
-			Result runResult = matrixRun.getResult();
-			if (continueRetrying && runResult.isWorseOrEqualTo(getWorseThanOrEqualTo()) && runResult.isBetterOrEqualTo(getBetterThanOrEqualTo())) {
-				if (matchesPattern(matrixRun, patterns)) {
-					int retriedCount = retries.get(configuration);
-					if (retriedCount < getMaxRetries()) {
-						++retriedCount;
-						retries.put(configuration, retriedCount);
-						//rerun
-						String logMessage = String.format("%s was %s. Matched pattern to rerun. Rerunning (%d).", matrixRun, runResult, retriedCount);
-						listener.error(logMessage);
-
-						HealedAction action = parentBuild.getAction(HealedAction.class);
-						if(action == null) {
-							//noinspection SynchronizationOnLocalVariableOrMethodParameter
-							synchronized (parentBuild.getActions()) {
-								action = parentBuild.getAction(HealedAction.class);
-								if(action == null) {
-									action = new HealedAction(matrixRun.getCharset());
-									parentBuild.addAction(action);
-								}
-							}
-						}
-						action.addAutoHealedJob(matrixRun);
-
-						MatrixConfiguration parent = matrixRun.getParent();
-						if(parent != null) {
-							//I'm paranoid about NPEs
-							parent.removeRun(matrixRun);
-							matrixRun.delete();
-						} else {
-							LOGGER.severe("couldn't remove old run, parent was null. This is a Jenkins core bug.");
-						}
-						scheduleConfigurationBuild(execution, configuration, new SelfHealingCause(parentBuild, retriedCount));
-						configurations.add(configuration);
-						continue;
-					} else {
-						String logMessage = String.format("%s was %s. Matched pattern to rerun, but the max number of retries (%d) has been met.", matrixRun, runResult, getMaxRetries());
-						listener.error(logMessage);
-						if(getStopRetryingAfterOneFails()) {
-							listener.error("Not retrying any more builds.");
-							continueRetrying = false;
-						}
+	/**
+	 * Adds the configuration of the given finished run to the candidates to check, if it's one being waited on.
+	 */
+	private void addCandidate(ExecutionState state, MatrixRun run, Set<MatrixConfiguration> candidates) {
+		MatrixConfiguration configuration = run.getParent() == null ? null : state.pending.get(run.getParent().getFullName());
+		if (configuration != null) {
+			candidates.add(configuration);
+		}
+	}
+
+	/**
+	 * Scans what the running configurations have logged since the last check, on post-processing threads.
+	 * {@link #onTailed} picks up what they found.
+	 * Nothing is followed once retrying has been turned off for the rest of the build, e.g. because the retry budget is used up,
+	 * or while the circuit breaker is holding reruns back.
+	 */
+	private void tailRunningConfigurations(final ExecutionState state) {
+		if (!state.continueRetrying || state.circuitOpen) {
+			return;
+		}
+		int buildNumber = state.execution.getBuild().getNumber();
+		for (final MatrixConfiguration configuration : state.pending.values()) {
+			if (state.retries.get(configuration) >= state.maxRetries.get(configuration) || state.tailing.contains(configuration.getFullName())) {
+				continue;
+			}
+			final MatrixRun run = configuration.getBuildByNumber(buildNumber);
+			if (run == null || !run.isBuilding()) {
+				continue;
+			}
+			state.tailing.add(configuration.getFullName());
+			state.inFlight++;
+			state.postProcessors.execute(new Runnable() {
+				public void run() {
+					TailResult tailed;
+					try {
+						int matched = state.tailer.tail(run);
+						LogScanner scanner = matched < 0 ? null : state.tailer.getMatchingScanner(configuration.getFullName());
+						tailed = new TailResult(configuration, run, matched,
+								scanner == null ? -1 : scanner.getMatchOffset(), scanner == null ? null : scanner.getMatchedLine(), null);
+						tailed.disabledPatterns = state.tailer.takeDisabledPatterns(configuration.getFullName());
+					} catch (Exception e) {
+						tailed = new TailResult(configuration, run, -1, -1, null, e);
 					}
-				} else {
-					String logMessage = String.format("%s was %s. It did not match the pattern to rerun. Accepting result.", matrixRun, runResult);
-					logger.println(logMessage);
+					state.events.add(tailed);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Aborts a run that logged a line matching a pattern while it was building, if it would be rerun for it, so it can be rerun right away.
+	 * Nothing is aborted once retrying has been turned off or while the circuit breaker is holding reruns back.
+	 * A run whose line matches a systemic failure that won't be rerun is left to finish.
+	 */
+	private void onTailed(ExecutionState state, TailResult tailed) {
+		MatrixConfiguration configuration = tailed.configuration;
+		state.tailing.remove(configuration.getFullName());
+		if (tailed.error != null) {
+			LOGGER.warning("Couldn't follow the log of " + tailed.run + ": " + tailed.error.getMessage());
+			return;
+		}
+		reportDisabledPatterns(state, tailed.run, tailed.disabledPatterns);
+		if (tailed.matched < 0 || !tailed.run.isBuilding() || !state.pending.containsKey(configuration.getFullName())) {
+			//A run that finished in the meantime has its whole log scanned instead.
+			return;
+		}
+		if (!state.continueRetrying || state.circuitOpen || state.retries.get(configuration) >= state.maxRetries.get(configuration)) {
+			return;
+		}
+		String matchedPattern = state.patterns.getPattern(tailed.matched);
+		if (isStoppedSystemicFailure(state, configuration, tailed.matchedLine)) {
+			state.execution.getListener().getLogger().println(String.format("%s logged a line matching pattern '%s', but too many axises failed the same way for it to be rerun. Letting it finish.", tailed.run, matchedPattern));
+			return;
+		}
+		Executor executor = tailed.run.getExecutor();
+		if (executor == null) {
+			return;
+		}
+		state.execution.getListener().error(String.format("%s logged a line matching pattern '%s'. Aborting it so it can be rerun.", tailed.run, matchedPattern));
+		executor.interrupt(Result.ABORTED);
+		state.abortedForMatch.put(configuration.getFullName(), tailed);
+	}
+
+	/**
+	 * Decides what to do with the run of a configuration that has finished.
+	 * If its result qualifies to be rerun, its log is scanned on a post-processing thread and {@link #onScanned} picks it up from there.
+	 * A run aborted by {@link #onTailed} has already matched, so it goes straight on to be rerun,
+	 * as long as it really was aborted rather than finishing on its own before the abort got to it.
+	 * If it can't be rerun after all, {@link #accept} counts it as failed rather than aborted.
+	 */
+	private void onFinished(final ExecutionState state, final MatrixConfiguration configuration) throws IOException, InterruptedException {
+		TailResult earlyMatch = state.abortedForMatch.remove(configuration.getFullName());
+		if (state.tailer != null) {
+			state.tailer.forget(configuration.getFullName());
+		}
+
+		final MatrixRun matrixRun = configuration.getBuildByNumber(state.execution.getBuild().getNumber());
+		if (matrixRun == null) {
+			accept(state, configuration, null); // can happen if the configuration run gets cancelled before it gets started.
+			return;
+		}
+
+		Long scheduledAt = state.scheduledAt.get(configuration);
+		state.stats.addAttempt(scheduledAt == null ? 0 : matrixRun.getTimeInMillis() - scheduledAt);
+		Result runResult = matrixRun.getResult();
+		boolean abortedForMatch = earlyMatch != null && runResult == Result.ABORTED;
+		if (abortedForMatch) {
+			state.abortedAfterMatching.add(configuration.getFullName());
+		}
+		recordOutcome(state, abortedForMatch || runResult.isWorseOrEqualTo(getWorseThanOrEqualTo()));
+		if (state.continueRetrying && abortedForMatch) {
+			onScanned(state, new ScanResult(configuration, matrixRun, state.patterns.getPattern(earlyMatch.matched), earlyMatch.matchOffset, earlyMatch.matchedLine, null));
+		} else if (state.continueRetrying && runResult.isWorseOrEqualTo(getWorseThanOrEqualTo()) && runResult.isBetterOrEqualTo(getBetterThanOrEqualTo())) {
+			state.inFlight++;
+			state.postProcessors.execute(new Runnable() {
+				public void run() {
+					ScanResult scanned;
+					try {
+						scanned = scan(configuration, matrixRun, state.patterns, state.stats);
+					} catch (Exception e) {
+						scanned = new ScanResult(configuration, matrixRun, null, -1, null, e);
+					}
+					state.events.add(scanned);
+				}
+			});
+		} else {
+			accept(state, configuration, matrixRun);
+		}
+	}
+
+	/**
+	 * Decides whether a run whose result qualified to be rerun will be, now that its log has been scanned.
+	 * A run being rerun is archived and deleted on a post-processing thread and {@link #onArchived} reschedules it from there.
+	 */
+	private void onScanned(final ExecutionState state, ScanResult scanned) throws IOException, InterruptedException {
+		if (scanned.error != null) {
+			throw asIOException(scanned.error);
+		}
+
+		BuildListener listener = state.execution.getListener();
+		final MatrixConfiguration configuration = scanned.configuration;
+		final MatrixRun matrixRun = scanned.run;
+		Result runResult = matrixRun.getResult();
+		reportDisabledPatterns(state, matrixRun, scanned.disabledPatterns);
+		scanned.disabledPatterns = Collections.emptyList();
+		if (scanned.matchedPattern == null) {
+			String logMessage = String.format("%s was %s. It did not match the pattern to rerun. Accepting result.", matrixRun, runResult);
+			listener.getLogger().println(logMessage);
+			accept(state, configuration, matrixRun);
+			return;
+		}
+
+		int retriedCount = state.retries.get(configuration);
+		int maxRetries = state.maxRetries.get(configuration);
+		SignatureGroup systemicFailure = recordSignature(state, scanned);
+		if (state.continueRetrying && retriedCount < maxRetries && systemicFailure != null && !scanned.released) {
+			if (getStopRetryingSystemicFailures()) {
+				String logMessage = String.format("%s was %s. Matched pattern '%s' to rerun, but %d axises failed the same way. Not rerunning it.", matrixRun, runResult, scanned.matchedPattern, systemicFailure.configurations.size());
+				listener.error(logMessage);
+				accept(state, configuration, matrixRun);
+				return;
+			}
+			if (systemicFailure.releaseAt == 0) {
+				long backoffMillis = TimeUnit.SECONDS.toMillis(getSystemicFailureBackoffSeconds()) << Math.min(systemicFailure.batches, MAX_SYSTEMIC_FAILURE_BACKOFF_DOUBLINGS);
+				systemicFailure.releaseAt = System.currentTimeMillis() + backoffMillis;
+			}
+			long secondsLeft = Math.max(0, TimeUnit.MILLISECONDS.toSeconds(systemicFailure.releaseAt - System.currentTimeMillis()));
+			String logMessage = String.format("%s was %s. Matched pattern '%s' to rerun, but %d axises failed the same way. Holding the rerun back to retry them together in %d seconds.", matrixRun, runResult, scanned.matchedPattern, systemicFailure.configurations.size(), secondsLeft);
+			listener.error(logMessage);
+			systemicFailure.held.add(scanned);
+			state.heldBySignature++;
+			return;
+		}
+		if (state.continueRetrying && retriedCount < maxRetries && state.circuitOpen) {
+			String logMessage = String.format("%s was %s. Matched pattern '%s' to rerun, but too many runs are failing. Holding the rerun back.", matrixRun, runResult, scanned.matchedPattern);
+			listener.error(logMessage);
+			state.held.add(scanned);
+			return;
+		}
+		if (state.continueRetrying && retriedCount < maxRetries) {
+			state.retriesUsed++;
+			checkRetryBudget(state);
+			state.abortedAfterMatching.remove(configuration.getFullName());
+			final int newRetriedCount = retriedCount + 1;
+			final long finishedAt = matrixRun.getTimeInMillis() + matrixRun.getDuration();
+			state.retries.put(configuration, newRetriedCount);
+			recordFailedNode(state, configuration, matrixRun);
+			state.matchedPatterns.get(configuration).add(scanned.matchedPattern);
+			state.stats.addRetry(scanned.matchedPattern);
+			//rerun
+			String logMessage = String.format("%s was %s. Matched pattern '%s' to rerun. Rerunning (%d).", matrixRun, runResult, scanned.matchedPattern, newRetriedCount);
+			listener.error(logMessage);
+
+			final String matchedPattern = scanned.matchedPattern;
+			final long matchOffset = scanned.matchOffset;
+			state.inFlight++;
+			state.postProcessors.execute(new Runnable() {
+				public void run() {
+					Exception error = null;
+					try {
+						archiveAndDelete(matrixRun, matchedPattern, matchOffset, state.stats);
+					} catch (Exception e) {
+						error = e;
+					}
+					state.events.add(new ArchiveResult(configuration, newRetriedCount, finishedAt, error));
+				}
+			});
+			return;
+		}
+
+		if (retriedCount >= maxRetries) {
+			String logMessage;
+			if (maxRetries < getMaxRetries()) {
+				logMessage = String.format("%s was %s. Matched pattern to rerun, but reruns haven't healed it in any build so far. Not rerunning it.", matrixRun, runResult);
+			} else {
+				logMessage = String.format("%s was %s. Matched pattern to rerun, but the max number of retries (%d) has been met.", matrixRun, runResult, maxRetries);
+			}
+			listener.error(logMessage);
+			if(getStopRetryingAfterOneFails()) {
+				listener.error("Not retrying any more builds.");
+				state.continueRetrying = false;
+			}
+		}
+		accept(state, configuration, matrixRun);
+	}
+
+	/**
+	 * Says in the build's log which patterns took too long to evaluate on a line of the given run's log,
+	 * since they weren't checked against the rest of it and so can't have caused a rerun.
+	 */
+	private void reportDisabledPatterns(ExecutionState state, MatrixRun run, List<String> disabledPatterns) {
+		for (String pattern : disabledPatterns) {
+			state.execution.getListener().error(String.format("Log pattern '%s' took too long to evaluate on a line of %s. It wasn't checked against the rest of that log.", pattern, run));
+		}
+	}
+
+	/**
+	 * Turns retrying off for the rest of the build as soon as the retry budget is used up,
+	 * so nothing more is aborted early or held back for a rerun that can't happen.
+	 */
+	private void checkRetryBudget(ExecutionState state) {
+		if (state.continueRetrying && state.retryBudget >= 0 && state.retriesUsed >= state.retryBudget) {
+			state.execution.getListener().error(String.format("The retry budget of %d reruns for this build has been used up. Not retrying any more builds.", state.retryBudget));
+			state.continueRetrying = false;
+		}
+	}
+
+	/**
+	 * @return True if the given line is one that enough other axises failed with that {@link #getStopRetryingSystemicFailures()}
+	 * won't let the given configuration be rerun for it.
+	 */
+	private boolean isStoppedSystemicFailure(ExecutionState state, MatrixConfiguration configuration, String matchedLine) {
+		int threshold = getSystemicFailureThreshold();
+		if (!getStopRetryingSystemicFailures() || threshold <= 0 || matchedLine == null) {
+			return false;
+		}
+		SignatureGroup group = state.signatureGroups.get(FailureSignature.of(matchedLine));
+		if (group == null) {
+			return threshold <= 1;
+		}
+		int failed = group.configurations.size() + (group.configurations.contains(configuration.getFullName()) ? 0 : 1);
+		return failed >= threshold;
+	}
+
+	/**
+	 * Adds the configuration of the given run to the group of runs that failed with the same line.
+	 *
+	 * @return The group, if it has reached {@link #getSystemicFailureThreshold()}; otherwise null.
+	 */
+	private SignatureGroup recordSignature(ExecutionState state, ScanResult scanned) {
+		int threshold = getSystemicFailureThreshold();
+		if (threshold <= 0 || scanned.matchedLine == null) {
+			return null;
+		}
+		String signature = FailureSignature.of(scanned.matchedLine);
+		SignatureGroup group = state.signatureGroups.get(signature);
+		if (group == null) {
+			group = new SignatureGroup(signature);
+			state.signatureGroups.put(signature, group);
+		}
+		if (group.configurations.add(scanned.configuration.getFullName()) && group.configurations.size() == threshold) {
+			state.execution.getListener().error(String.format("%d axises failed with the same line, which looks like one shared cause rather than flakiness: %s", threshold, signature));
+		}
+		return group.configurations.size() >= threshold ? group : null;
+	}
+
+	/**
+	 * Releases the reruns held back by each {@link SignatureGroup} whose wait is over, as one batch.
+	 * Everything is released right away once retrying has been turned off, so it can be accepted.
+	 */
+	private void releaseSignatureGroups(ExecutionState state) throws IOException, InterruptedException {
+		long now = System.currentTimeMillis();
+		for (SignatureGroup group : new ArrayList<SignatureGroup>(state.signatureGroups.values())) {
+			if (group.held.isEmpty() || (state.continueRetrying && now < group.releaseAt)) {
+				continue;
+			}
+			List<ScanResult> batch = new ArrayList<ScanResult>(group.held);
+			group.held.clear();
+			group.releaseAt = 0;
+			group.batches++;
+			state.heldBySignature -= batch.size();
+			if (state.continueRetrying) {
+				state.execution.getListener().getLogger().println(String.format("Releasing %d held reruns of axises that failed with: %s", batch.size(), group.signature));
+			}
+			for (ScanResult scanned : batch) {
+				scanned.released = true;
+				onScanned(state, scanned);
+			}
+		}
+	}
+
+	/**
+	 * Reschedules a configuration once its failed run has been archived and deleted.
+	 */
+	private void onArchived(ExecutionState state, ArchiveResult archived) throws IOException, InterruptedException {
+		if (archived.error != null) {
+			throw asIOException(archived.error);
+		}
+		if (state.failingFast) {
+			//The failed run was deleted to make room for the rerun, so there's nothing left to accept.
+			state.execution.getListener().getLogger().println(String.format("Not rerunning %s, since this build is failing fast.", archived.configuration.getFullDisplayName()));
+			accept(state, archived.configuration, null);
+			return;
+		}
+		List<Action> retryActions = createRetryActions(state, archived.configuration);
+		state.submissions.add(new Submission(archived.configuration, new SelfHealingCause(state.execution.getBuild(), archived.retriedCount), retryActions));
+		state.stats.addRetryLatency(System.currentTimeMillis() - archived.runFinishedAt);
+		state.pending.put(archived.configuration.getFullName(), archived.configuration);
+	}
+
+	/**
+	 * Decides the most times the given configuration may be rerun in this build.
+	 * Decided once per build, so the runs of other builds don't change it halfway through.
+	 */
+	private int decideMaxRetries(ExecutionState state, MatrixConfiguration configuration) {
+		if (!getUseFlakinessHistory()) {
+			return getMaxRetries();
+		}
+		return decideMaxRetries(getMaxRetries(), state.history.get(configuration.getName()));
+	}
+
+	/**
+	 * @param maxRetries The most times a configuration may be rerun, before its history is considered.
+	 * @param history    The history of the configuration, or null if there is none.
+	 * @return The most times the configuration may be rerun in the next build.
+	 */
+	static int decideMaxRetries(int maxRetries, FlakinessHistory.ConfigurationHistory history) {
+		if (history == null || history.getRetriedBuilds() < MIN_RETRIED_BUILDS_FOR_HISTORY) {
+			return maxRetries;
+		}
+		if (history.getHealedBuilds() == 0) {
+			return (history.getBuilds() + 1) % HEAL_PROBE_INTERVAL_BUILDS == 0 ? maxRetries : 0;
+		}
+		if (history.getHealRate() >= RELIABLE_HEAL_RATE) {
+			return maxRetries + 1;
+		}
+		return maxRetries;
+	}
+
+	/**
+	 * Adds the outcome of a finished run to the circuit breaker's window and opens or closes the breaker accordingly.
+	 * The breaker only opens once the window is full, so the first few failures of a build don't trip it.
+	 */
+	private void recordOutcome(ExecutionState state, boolean failed) {
+		if (getCircuitBreakerFailurePercent() <= 0) {
+			return;
+		}
+		state.recentOutcomes.addLast(failed);
+		if (failed) {
+			state.recentFailures++;
+		}
+		if (state.recentOutcomes.size() > getCircuitBreakerWindow() && state.recentOutcomes.removeFirst()) {
+			state.recentFailures--;
+		}
+
+		int window = state.recentOutcomes.size();
+		boolean open = window >= getCircuitBreakerWindow() && state.recentFailures * 100 >= getCircuitBreakerFailurePercent() * window;
+		if (open != state.circuitOpen) {
+			state.circuitOpen = open;
+			String logMessage = String.format("%d of the last %d runs failed. %s", state.recentFailures, window, open ? "Holding back reruns until fewer fail." : "Releasing held reruns.");
+			state.execution.getListener().getLogger().println(logMessage);
+		}
+	}
+
+	/**
+	 * Remembers the node the given run failed on, so its retry and, past {@link #getNodeFailureThreshold()}, every other retry can avoid it.
+	 */
+	private void recordFailedNode(ExecutionState state, MatrixConfiguration configuration, MatrixRun matrixRun) {
+		String nodeName = matrixRun.getBuiltOnStr();
+		if (nodeName == null) {
+			return; //never got to a node
+		}
+		Set<String> failedOn = state.failedNodes.get(configuration);
+		if (failedOn == null) {
+			failedOn = new LinkedHashSet<String>();
+			state.failedNodes.put(configuration, failedOn);
+		}
+		failedOn.add(nodeName);
+		Integer failures = state.failuresByNode.get(nodeName);
+		state.failuresByNode.put(nodeName, failures == null ? 1 : failures + 1);
+	}
+
+	/**
+	 * Creates the actions that move the retry of the given configuration ahead in the queue,
+	 * and keep it off nodes that have failed it, or too many others.
+	 * Nodes are only avoided if some other online node could build the configuration,
+	 * so a configuration that can only be built on the nodes it failed on isn't left waiting in the queue.
+	 *
+	 * @return A {@link RetryPriorityAction} if retries are boosted, and an {@link ExcludedNodesAction} if any node needs to be avoided.
+	 */
+	private List<Action> createRetryActions(ExecutionState state, MatrixConfiguration configuration) {
+		Set<String> excluded = new LinkedHashSet<String>();
+		if (getAvoidFailedNodes() && state.failedNodes.containsKey(configuration)) {
+			excluded.addAll(state.failedNodes.get(configuration));
+		}
+		if (getNodeFailureThreshold() > 0) {
+			for (Map.Entry<String, Integer> entry : state.failuresByNode.entrySet()) {
+				if (entry.getValue() >= getNodeFailureThreshold()) {
+					excluded.add(entry.getKey());
+				}
+			}
+		}
+		List<Action> actions = new ArrayList<Action>();
+		if (getRetryPriorityBoostSeconds() > 0) {
+			actions.add(new RetryPriorityAction(TimeUnit.SECONDS.toMillis(getRetryPriorityBoostSeconds())));
+		}
+		if (excluded.isEmpty()) {
+			return actions;
+		}
+
+		StringBuilder names = new StringBuilder();
+		for (String nodeName : excluded) {
+			names.append(names.length() == 0 ? "" : ", ").append(nodeName.length() == 0 ? "master" : nodeName);
+		}
+		if (!hasOtherOnlineNode(configuration, excluded)) {
+			state.execution.getListener().getLogger().println("Not keeping the rerun of " + configuration.getFullDisplayName() + " off " + names + ", since no other online node can build it.");
+			return actions;
+		}
+		state.execution.getListener().getLogger().println("Keeping the rerun of " + configuration.getFullDisplayName() + " off " + names + ".");
+		actions.add(new ExcludedNodesAction(excluded, NODE_EXCLUSION_TIMEOUT_MILLIS));
+		return actions;
+	}
+
+	/**
+	 * @return True if an online node with executors that isn't one of the given ones could build the given configuration.
+	 */
+	private static boolean hasOtherOnlineNode(MatrixConfiguration configuration, Set<String> excluded) {
+		Label label = configuration.getAssignedLabel();
+		Collection<Node> nodes;
+		if (label != null) {
+			nodes = label.getNodes();
+		} else {
+			//Without a label, any node that isn't reserved for jobs tied to it.
+			nodes = new ArrayList<Node>();
+			nodes.add(Jenkins.getInstance());
+			nodes.addAll(Jenkins.getInstance().getNodes());
+			for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+				if (iterator.next().getMode() != Node.Mode.NORMAL) {
+					iterator.remove();
 				}
 			}
-			notifyEndRun(matrixRun, execution.getAggregators(), execution.getListener());
-			finalResult = finalResult.combine(runResult);
 		}
-		return finalResult;
+		for (Node node : nodes) {
+			Computer computer = node.toComputer();
+			if (!excluded.contains(node.getNodeName()) && node.getNumExecutors() > 0 && computer != null && computer.isOnline()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Accepts the result of the given run as the final result of its configuration.
+	 * A run aborted by {@link #cancelRemainingRuns} is still passed to the aggregators,
+	 * but the build's result is what made it fail fast, not the runs it aborted.
+	 * A run aborted by {@link #onTailed} that couldn't be rerun after all counts as a failure, since that's what it logged.
+	 */
+	private void accept(ExecutionState state, MatrixConfiguration configuration, MatrixRun matrixRun) throws IOException, InterruptedException {
+		notifyEndRun(matrixRun, state.execution.getAggregators(), state.execution.getListener());
+		boolean abortedByFailFast = state.abortedByFailFast.remove(configuration.getFullName());
+		boolean abortedAfterMatching = state.abortedAfterMatching.remove(configuration.getFullName());
+		if (matrixRun != null && abortedByFailFast && matrixRun.getResult() == Result.ABORTED) {
+			state.execution.getListener().getLogger().println(String.format("%s was aborted by failing fast. Leaving it out of the result.", matrixRun));
+		} else if (matrixRun != null) {
+			Result result = matrixRun.getResult();
+			if (abortedAfterMatching && result == Result.ABORTED) {
+				result = Result.FAILURE;
+				state.execution.getListener().getLogger().println(String.format("%s was aborted for logging a line that matched, but isn't being rerun. Counting it as %s.", matrixRun, result));
+			}
+			state.finalResult = state.finalResult.combine(result);
+			state.stageResult = state.stageResult.combine(result);
+			if (getFailFast() && !state.failingFast && state.finalResult.isWorseThan(getFailFastResultCondition())) {
+				state.execution.getListener().error(String.format("%s was %s, so this build can't end better than %s. Failing fast: cancelling everything left.", matrixRun, result, state.finalResult));
+				state.failingFast = true;
+				state.continueRetrying = false;
+			}
+
+			int retriedCount = state.retries.get(configuration);
+			boolean healed = retriedCount > 0 && result.isBetterThan(getWorseThanOrEqualTo());
+			try {
+				state.history.record(configuration.getName(), retriedCount + 1, healed, state.matchedPatterns.get(configuration), matrixRun.getDuration());
+			} catch (IOException e) {
+				LOGGER.warning("Couldn't record the history of " + matrixRun + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Moves the log of the given run to the build's {@link HealedAction} and deletes the run so the configuration can be run again.
+	 * Called from post-processing threads.
+	 *
+	 * @param matchedPattern The pattern that matched the log.
+	 * @param matchOffset    The byte offset of the line that matched, or -1 if it isn't known.
+	 */
+	private void archiveAndDelete(MatrixRun matrixRun, String matchedPattern, long matchOffset, HealingStatsAction stats) throws IOException {
+		MatrixBuild parentBuild = matrixRun.getParentBuild();
+		HealedAction action = parentBuild.getAction(HealedAction.class);
+		if(action == null) {
+			//noinspection SynchronizationOnLocalVariableOrMethodParameter
+			synchronized (parentBuild.getActions()) {
+				action = parentBuild.getAction(HealedAction.class);
+				if(action == null) {
+					action = new HealedAction(matrixRun.getCharset());
+					parentBuild.addAction(action);
+				}
+			}
+		}
+		long start = System.currentTimeMillis();
+		long bytes = matrixRun.getLogFile().length();
+		action.addAutoHealedJob(matrixRun, getCompressHealedLogs(), matchedPattern, matchOffset);
+		stats.addArchive(bytes, System.currentTimeMillis() - start);
+
+		MatrixConfiguration parent = matrixRun.getParent();
+		if(parent != null) {
+			//I'm paranoid about NPEs
+			parent.removeRun(matrixRun);
+			matrixRun.delete();
+		} else {
+			LOGGER.severe("couldn't remove old run, parent was null. This is a Jenkins core bug.");
+		}
+	}
+
+	private static IOException asIOException(Exception e) {
+		if (e instanceof IOException) {
+			return (IOException) e;
+		}
+		IOException result = new IOException(e.getMessage());
+		result.initCause(e);
+		return result;
 	}
 
 	/**
@@ -264,48 +1332,36 @@ public class SelfHealingMatrixExecutionStrategy extends MatrixExecutionStrategy
 
 	/**
 	 * Checks if the logs of the given run match any of the given patterns, line-by-line.
+	 * Each line is scanned once, no matter how many patterns there are, and is matched on its bytes where the charset allows it.
+	 * Only the end of the log is scanned if {@link #getScanLastMegabytes()} is set and the charset of the log allows it.
 	 *
-	 * @param matrixRun The run to be considered.
-	 * @param patterns  The patterns to match with.
-	 * @return True if at least one line of the logs match at least one of the given patterns.
+	 * @param configuration The configuration of the run.
+	 * @param matrixRun     The run to be considered.
+	 * @param patterns      The patterns to match with.
+	 * @param stats         Where the bytes scanned and the time it took are added.
+	 * @return The first pattern that matched a line of the log and where, or no pattern if none did.
+	 *         If there are no patterns, every log is accepted with an empty pattern.
 	 * @throws IOException If there's a problem reading the log file.
 	 */
-	private boolean matchesPattern(MatrixRun matrixRun, List<Pattern> patterns) throws IOException {
+	private ScanResult scan(MatrixConfiguration configuration, MatrixRun matrixRun, LogPatternMatcher patterns, HealingStatsAction stats) throws IOException {
 		if (patterns == null || patterns.isEmpty()) {
-			return true; //No specific patterns specified. Accept everything.
+			return new ScanResult(configuration, matrixRun, "", -1, null, null); //No specific patterns specified. Accept everything.
 		}
 
-		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(matrixRun.getLogFile()), matrixRun.getCharset()));
-		try {
-			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-				for (Pattern pattern : patterns) {
-					Matcher matcher = pattern.matcher(line);
-					if (matcher.find()) {
-						return true;
-					}
-				}
-			}
-		} finally {
-			reader.close();
-		}
-		return false;
-	}
-
-	/**
-	 * Compiles all the patterns from {@link #getLogPattern()}
-	 */
-	private List<Pattern> createPatternsList() {
-		String logPattern = getLogPattern();
-		if (logPattern == null || logPattern.isEmpty()) {
-			return Collections.emptyList();
-		}
-		List<Pattern> result = new LinkedList<Pattern>();
-		Scanner scanner = new Scanner(logPattern);
-		while (scanner.hasNextLine()) {
-			String line = scanner.nextLine();
-			Pattern pattern = Pattern.compile(line);
-			result.add(pattern);
+		long start = System.currentTimeMillis();
+		File log = matrixRun.getLogFile();
+		long windowBytes = getScanLastMegabytes() * 1024L * 1024L;
+		LogScanner scanner = new LogScanner(patterns, matrixRun.getCharset(), LogScanner.DEFAULT_MAX_LINE_LENGTH);
+		int matched = scanner.scanComplete(log, windowBytes);
+		List<String> disabledPatterns = scanner.takeDisabledPatterns();
+		stats.addScan(windowBytes > 0 && scanner.canScanPartially() ? Math.min(windowBytes, log.length()) : log.length(), System.currentTimeMillis() - start);
+		ScanResult result;
+		if (matched < 0) {
+			result = new ScanResult(configuration, matrixRun, null, -1, null, null);
+		} else {
+			result = new ScanResult(configuration, matrixRun, patterns.getPattern(matched), scanner.getMatchOffset(), scanner.getMatchedLine(), null);
 		}
+		result.disabledPatterns = disabledPatterns;
 		return result;
 	}
 
@@ -347,26 +1403,313 @@ public class SelfHealingMatrixExecutionStrategy extends MatrixExecutionStrategy
 	}
 
 	/**
-	 * Schedules the given configuration.
-	 *
-	 * Copied from the {@link DefaultMatrixExecutionStrategyImpl#scheduleConfigurationBuild(hudson.matrix.MatrixBuild.MatrixBuildExecution, hudson.matrix.MatrixConfiguration)}
-	 *
-	 * @param execution     Contains information about the general build, including the listener used to log queue blockage.
-	 * @param configuration The configuration to schedule.
-	 * @param upstreamCause The cause of the build. Will either be an {@link hudson.model.Cause.UpstreamCause} or {@link com.attask.jenkins.healingmatrixproject.SelfHealingCause}.
+	 * Puts every configuration in {@link ExecutionState#submissions} that is due into the queue.
+	 * <p/>
+	 * Based on {@link DefaultMatrixExecutionStrategyImpl#scheduleConfigurationBuild(hudson.matrix.MatrixBuild.MatrixBuildExecution, hudson.matrix.MatrixConfiguration)},
+	 * but the whole batch is scheduled while holding the queue's lock once, instead of taking it for every configuration.
+	 * A configuration the queue rejects is tried again later, waiting longer each time, without holding up the rest.
 	 */
-	private void scheduleConfigurationBuild(MatrixBuild.MatrixBuildExecution execution, MatrixConfiguration configuration, Cause.UpstreamCause upstreamCause) throws InterruptedException {
-		MatrixBuild build = (MatrixBuild) execution.getBuild();
-		execution.getListener().getLogger().println(Messages.MatrixBuild_Triggering(ModelHyperlinkNote.encodeTo(configuration)));
+	private void submitDue(ExecutionState state) {
+		if (state.submissions.isEmpty()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		List<Submission> due = new ArrayList<Submission>();
+		for (Iterator<Submission> iterator = state.submissions.iterator(); iterator.hasNext(); ) {
+			Submission submission = iterator.next();
+			if (submission.notBefore <= now) {
+				due.add(submission);
+				iterator.remove();
+			}
+		}
+		if (due.isEmpty()) {
+			return;
+		}
 
-		// filter the parent actions for those that can be passed to the individual jobs.
-		List<MatrixChildAction> childActions = Util.filter(build.getActions(), MatrixChildAction.class);
-		childActions.addAll(build.getActions(ParametersAction.class));
-		BuildListener listener = execution.getListener();
-		while(!configuration.scheduleBuild(childActions, upstreamCause)) {
-			String msg = "Unable to schedule build " + configuration.getFullDisplayName() + ". Retrying.";
-			listener.error(msg);
-			Thread.sleep(500);
+		List<Submission> rejected = new ArrayList<Submission>();
+		Queue queue = Jenkins.getInstance().getQueue();
+		//noinspection SynchronizationOnLocalVariableOrMethodParameter
+		synchronized (queue) {
+			for (Submission submission : due) {
+				List<Action> actions = new ArrayList<Action>(state.childActions);
+				actions.addAll(submission.actions);
+				if (submission.configuration.scheduleBuild(actions, submission.cause)) {
+					state.scheduledAt.put(submission.configuration, System.currentTimeMillis());
+				} else {
+					rejected.add(submission);
+				}
+			}
+		}
+
+		//Logged after the lock is let go, so a slow build log doesn't hold up the queue.
+		BuildListener listener = state.execution.getListener();
+		for (Submission submission : due) {
+			if (!rejected.contains(submission)) {
+				listener.getLogger().println(Messages.MatrixBuild_Triggering(ModelHyperlinkNote.encodeTo(submission.configuration)));
+			}
+		}
+		for (Submission submission : rejected) {
+			long backoff = Math.min(MAX_SUBMIT_BACKOFF_MILLIS, SUBMIT_BACKOFF_MILLIS << Math.min(submission.rejections, 10));
+			submission.rejections++;
+			submission.notBefore = now + backoff;
+			state.submissions.add(submission);
+			listener.error(String.format("Unable to schedule build %s. Retrying in %d ms.", submission.configuration.getFullDisplayName(), backoff));
+		}
+	}
+
+	/**
+	 * Everything the coordinator keeps track of while a single matrix build runs.
+	 * Only touched by the coordinator thread, except for {@link #events}.
+	 */
+	private static class ExecutionState {
+		private final MatrixBuild.MatrixBuildExecution execution;
+		private final LogPatternMatcher patterns;
+		/**
+		 * Finished runs, pushed by {@link MatrixRunCompletionListener}, and the results of post-processing.
+		 */
+		private final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+		/**
+		 * The number of times each configuration has been retried.
+		 */
+		private final Map<MatrixConfiguration, Integer> retries = new HashMap<MatrixConfiguration, Integer>();
+		/**
+		 * The most times each configuration may be retried.
+		 */
+		private final Map<MatrixConfiguration, Integer> maxRetries = new HashMap<MatrixConfiguration, Integer>();
+		/**
+		 * The patterns that matched each configuration's retried runs.
+		 */
+		private final Map<MatrixConfiguration, List<String>> matchedPatterns = new HashMap<MatrixConfiguration, List<String>>();
+		private FlakinessHistory history;
+		private final HealingStatsAction stats = new HealingStatsAction();
+		/**
+		 * When each configuration was last put in the queue.
+		 */
+		private final Map<MatrixConfiguration, Long> scheduledAt = new HashMap<MatrixConfiguration, Long>();
+		/**
+		 * The actions of the matrix build passed on to every run, worked out once.
+		 */
+		private final List<Action> childActions = new ArrayList<Action>();
+		/**
+		 * Configurations waiting to be put in the queue, either new or rejected by the queue before.
+		 */
+		private final List<Submission> submissions = new ArrayList<Submission>();
+		/**
+		 * Configurations that are queued or building, by full name.
+		 */
+		private final Map<String, MatrixConfiguration> pending = new LinkedHashMap<String, MatrixConfiguration>();
+		/**
+		 * Keeps track of why builds are blocked so we can print unique messages when they change.
+		 */
+		private final Map<String, String> whyBlockedMap = new HashMap<String, String>();
+		/**
+		 * Pending configurations that had neither a run nor a queue item on the last check, by full name.
+		 */
+		private Set<String> vanished = new HashSet<String>();
+		/**
+		 * The nodes each configuration has failed on and been retried, by node name.
+		 */
+		private final Map<MatrixConfiguration, Set<String>> failedNodes = new HashMap<MatrixConfiguration, Set<String>>();
+		/**
+		 * The number of retried failures on each node, by node name.
+		 */
+		private final Map<String, Integer> failuresByNode = new HashMap<String, Integer>();
+		/**
+		 * The most reruns allowed for the whole build, or -1 if there is no limit.
+		 */
+		private int retryBudget = -1;
+		private int retriesUsed = 0;
+		/**
+		 * Whether each of the most recently finished runs failed, oldest first.
+		 */
+		private final Deque<Boolean> recentOutcomes = new ArrayDeque<Boolean>();
+		private int recentFailures = 0;
+		private boolean circuitOpen = false;
+		/**
+		 * Runs that matched a pattern to rerun while the circuit breaker was open.
+		 */
+		private final List<ScanResult> held = new ArrayList<ScanResult>();
+		/**
+		 * The configurations that matched a pattern to rerun, by the {@link FailureSignature} of the line that matched.
+		 */
+		private final Map<String, SignatureGroup> signatureGroups = new HashMap<String, SignatureGroup>();
+		/**
+		 * The number of runs held back in any {@link SignatureGroup}.
+		 */
+		private int heldBySignature = 0;
+		/**
+		 * The number of post-processing tasks whose result hasn't been picked up yet.
+		 */
+		private int inFlight = 0;
+		private boolean continueRetrying = true;
+		/**
+		 * Set once the result is worse than {@link #getFailFastResultCondition()}, if {@link #getFailFast()} is on.
+		 */
+		private boolean failingFast = false;
+		private long nextFailFastSweep = 0;
+		/**
+		 * Configurations whose running run was aborted because the build is failing fast, by full name.
+		 */
+		private final Set<String> abortedByFailFast = new HashSet<String>();
+		private Result finalResult = Result.SUCCESS;
+		/**
+		 * The worst result of the touchstones or wave being built.
+		 */
+		private Result stageResult = Result.SUCCESS;
+		/**
+		 * Null unless runs are aborted as soon as they log a matching line.
+		 */
+		private RunLogTailer tailer;
+		/**
+		 * Configurations whose running log is being followed on a post-processing thread, by full name.
+		 */
+		private final Set<String> tailing = new HashSet<String>();
+		/**
+		 * Runs aborted for logging a matching line, by the full name of their configuration.
+		 */
+		private final Map<String, TailResult> abortedForMatch = new HashMap<String, TailResult>();
+		/**
+		 * Configurations whose run was aborted for logging a matching line and hasn't been rerun yet, by full name.
+		 */
+		private final Set<String> abortedAfterMatching = new HashSet<String>();
+		private ExecutorService postProcessors;
+
+		private ExecutionState(MatrixBuild.MatrixBuildExecution execution, LogPatternMatcher patterns) {
+			this.execution = execution;
+			this.patterns = patterns;
+		}
+	}
+
+	/**
+	 * The configurations of a build that failed with the same {@link FailureSignature}.
+	 */
+	private static class SignatureGroup {
+		private final String signature;
+		private final Set<String> configurations = new HashSet<String>();
+		/**
+		 * Reruns waiting for the next batch.
+		 */
+		private final List<ScanResult> held = new ArrayList<ScanResult>();
+		/**
+		 * When the next batch is released, or 0 if nothing is held.
+		 */
+		private long releaseAt = 0;
+		private int batches = 0;
+
+		private SignatureGroup(String signature) {
+			this.signature = signature;
+		}
+	}
+
+	/**
+	 * A configuration to put in the queue.
+	 */
+	private static class Submission {
+		private final MatrixConfiguration configuration;
+		private final Cause.UpstreamCause cause;
+		/**
+		 * Actions for this run only, on top of {@link ExecutionState#childActions}.
+		 */
+		private final List<Action> actions;
+		private int rejections = 0;
+		private long notBefore = 0;
+
+		private Submission(MatrixConfiguration configuration, Cause.UpstreamCause cause, List<Action> actions) {
+			this.configuration = configuration;
+			this.cause = cause;
+			this.actions = actions;
+		}
+	}
+
+	/**
+	 * The log of a finished run has been scanned.
+	 */
+	private static class ScanResult {
+		private final MatrixConfiguration configuration;
+		private final MatrixRun run;
+		/**
+		 * Null if no pattern matched.
+		 */
+		private final String matchedPattern;
+		/**
+		 * The byte offset of the line that matched, or -1 if it isn't known.
+		 */
+		private final long matchOffset;
+		/**
+		 * The line that matched, or null if it isn't known.
+		 */
+		private final String matchedLine;
+		private final Exception error;
+		/**
+		 * Set once released in a batch by its {@link SignatureGroup}, so it isn't held back again.
+		 */
+		private boolean released = false;
+		/**
+		 * Patterns that took too long on a line of the log, so weren't checked against the rest of it. Reported once.
+		 */
+		private List<String> disabledPatterns = Collections.emptyList();
+
+		private ScanResult(MatrixConfiguration configuration, MatrixRun run, String matchedPattern, long matchOffset, String matchedLine, Exception error) {
+			this.configuration = configuration;
+			this.run = run;
+			this.matchedPattern = matchedPattern;
+			this.matchOffset = matchOffset;
+			this.matchedLine = matchedLine;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * A run being rerun has been archived and deleted.
+	 */
+	private static class ArchiveResult {
+		private final MatrixConfiguration configuration;
+		private final int retriedCount;
+		/**
+		 * When the run being rerun finished.
+		 */
+		private final long runFinishedAt;
+		private final Exception error;
+
+		private ArchiveResult(MatrixConfiguration configuration, int retriedCount, long runFinishedAt, Exception error) {
+			this.configuration = configuration;
+			this.retriedCount = retriedCount;
+			this.runFinishedAt = runFinishedAt;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * The log of a running configuration has been followed.
+	 */
+	private static class TailResult {
+		private final MatrixConfiguration configuration;
+		private final MatrixRun run;
+		/**
+		 * The index of the pattern that matched, or -1 if none did.
+		 */
+		private final int matched;
+		/**
+		 * The byte offset of the line that matched, or -1 if it isn't known.
+		 */
+		private final long matchOffset;
+		/**
+		 * The line that matched, or null if it isn't known.
+		 */
+		private final String matchedLine;
+		private final Exception error;
+		/**
+		 * Patterns that took too long on a line of the log since the last tail, so aren't checked against the rest of it.
+		 */
+		private List<String> disabledPatterns = Collections.emptyList();
+
+		private TailResult(MatrixConfiguration configuration, MatrixRun run, int matched, long matchOffset, String matchedLine, Exception error) {
+			this.configuration = configuration;
+			this.run = run;
+			this.matched = matched;
+			this.matchOffset = matchOffset;
+			this.matchedLine = matchedLine;
+			this.error = error;
 		}
 	}
 
@@ -388,9 +1731,45 @@ public class SelfHealingMatrixExecutionStrategy extends MatrixExecutionStrategy
 			return items;
 		}
 
+		@SuppressWarnings("UnusedDeclaration")
+		public FormValidation doCheckLogPattern(@QueryParameter String value) {
+			try {
+				LogPatternMatcher.compile(value);
+				return FormValidation.ok();
+			} catch (PatternSyntaxException e) {
+				return FormValidation.error(e.getMessage());
+			}
+		}
+
 		@SuppressWarnings("UnusedDeclaration")
 		public ListBoxModel doFillBetterThanOrEqualToItems() {
 			return doFillWorseThanOrEqualToItems();
 		}
+
+		@SuppressWarnings("UnusedDeclaration")
+		public FormValidation doCheckRetryBudget(@QueryParameter String value) {
+			try {
+				parseRetryBudget(Util.fixEmptyAndTrim(value), 0);
+				return FormValidation.ok();
+			} catch (NumberFormatException e) {
+				return FormValidation.error("Must be a number of reruns or a percentage of the axises, like '10' or '25%'.");
+			}
+		}
+
+		@SuppressWarnings("UnusedDeclaration")
+		public ListBoxModel doFillTouchStoneResultConditionItems() {
+			ListBoxModel items = new ListBoxModel();
+			items.add("Stable", Result.SUCCESS.toString());
+			items.add("Unstable", Result.UNSTABLE.toString());
+			return items;
+		}
+
+		@SuppressWarnings("UnusedDeclaration")
+		public ListBoxModel doFillFailFastResultConditionItems() {
+			ListBoxModel items = new ListBoxModel();
+			items.add("Stable", Result.SUCCESS.toString());
+			items.add("Unstable", Result.UNSTABLE.toString());
+			return items;
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package com.attask.jenkins.healingmatrixproject;
+
+/**
+ * Escaping for the tab-separated files the plugin keeps next to builds and projects.
+ * Tabs and line breaks in a value are escaped so every record stays on one line.
+ */
+final class TabSeparated {
+	private TabSeparated() {
+	}
+
+	static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		StringBuilder result = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+}
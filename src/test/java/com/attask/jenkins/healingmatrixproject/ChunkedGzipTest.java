@@ -0,0 +1,107 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ChunkedGzipTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsFromAnyOffset() throws IOException {
+		byte[] log = createLog(10000);
+		File compressed = compress(log, 1000);
+
+		assertEquals(log.length, ChunkedGzip.length(compressed));
+		for (int from : new int[]{0, 1, 999, 1000, 1001, 4321, 9999, 10000}) {
+			assertArrayEquals("from " + from, copyOfRange(log, from, log.length), read(ChunkedGzip.open(compressed, from)));
+		}
+	}
+
+	@Test
+	public void isStillAnOrdinaryGzipFile() throws IOException {
+		byte[] log = createLog(10000);
+		File compressed = compress(log, 1000);
+
+		assertArrayEquals(log, read(new GZIPInputStream(new FileInputStream(compressed))));
+	}
+
+	@Test
+	public void logThatFillsTheLastChunkExactly() throws IOException {
+		byte[] log = createLog(3000);
+		File compressed = compress(log, 1000);
+
+		assertEquals(3000, ChunkedGzip.length(compressed));
+		assertArrayEquals(copyOfRange(log, 2000, 3000), read(ChunkedGzip.open(compressed, 2000)));
+		assertEquals(0, read(ChunkedGzip.open(compressed, 3000)).length);
+	}
+
+	@Test
+	public void emptyLog() throws IOException {
+		File compressed = compress(new byte[0], 1000);
+
+		assertEquals(0, ChunkedGzip.length(compressed));
+		assertEquals(0, read(ChunkedGzip.open(compressed, 0)).length);
+	}
+
+	@Test
+	public void logCompressedWithoutAnIndex() throws IOException {
+		byte[] log = createLog(5000);
+		File compressed = folder.newFile("old.log.gz");
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed));
+		out.write(log);
+		out.close();
+
+		assertFalse(ChunkedGzip.indexOf(compressed).exists());
+		assertEquals(log.length, ChunkedGzip.length(compressed));
+		assertArrayEquals(copyOfRange(log, 4000, 5000), read(ChunkedGzip.open(compressed, 4000)));
+	}
+
+	private File compress(byte[] log, int chunkBytes) throws IOException {
+		File source = folder.newFile("source.log");
+		FileOutputStream out = new FileOutputStream(source);
+		out.write(log);
+		out.close();
+		File target = new File(folder.getRoot(), "archived.log.gz");
+		ChunkedGzip.compress(source, target, chunkBytes);
+		assertTrue(ChunkedGzip.indexOf(target).isFile());
+		return target;
+	}
+
+	private static byte[] createLog(int length) {
+		Random random = new Random(42);
+		byte[] log = new byte[length];
+		for (int i = 0; i < length; i++) {
+			log[i] = (byte) (i % 80 == 79 ? '\n' : 'a' + random.nextInt(26));
+		}
+		return log;
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[777];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] copyOfRange(byte[] bytes, int from, int to) {
+		byte[] copy = new byte[to - from];
+		System.arraycopy(bytes, from, copy, 0, copy.length);
+		return copy;
+	}
+}
@@ -0,0 +1,66 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FailureSignatureTest {
+	@Test
+	public void masksWhatDiffersBetweenRuns() {
+		assertEquals("<time> Could not GET <url> (attempt <n>)",
+				FailureSignature.of("2013-03-06 10:28:01 Could not GET http://repo:8081/a/b.jar (attempt 3)"));
+		assertEquals("java.io.IOException: Connection reset at <path> line <n>",
+				FailureSignature.of("java.io.IOException: Connection reset at /home/jenkins/workspace/foo-12/build.gradle line 42"));
+		assertEquals("ERROR: commit <hex> not found in <path> pid=<n> at <time>",
+				FailureSignature.of("ERROR: commit 3fa2b9c1de not found in C:\\ws\\proj\\x.txt pid=1234 at 12:01:02.123"));
+	}
+
+	@Test
+	public void sameFailureOnDifferentConfigurationsHasTheSameSignature() {
+		assertEquals(
+				FailureSignature.of("[10:28:01] Timed out after 300 seconds waiting for /var/lib/jenkins/workspace/os=linux/lock"),
+				FailureSignature.of("[11:02:45] Timed out after 301 seconds waiting for /var/lib/jenkins/workspace/os=windows/lock"));
+	}
+
+	@Test
+	public void differentFailuresHaveDifferentSignatures() {
+		assertFalse(FailureSignature.of("Connection reset").equals(FailureSignature.of("Connection refused")));
+	}
+
+	@Test
+	public void leavesPlainTextAlone() {
+		assertEquals("Could not resolve host: repo.example.com", FailureSignature.of("Could not resolve host: repo.example.com"));
+		assertEquals("deadbeef is not a hash", FailureSignature.of("deadbeef is not a hash"));
+	}
+
+	@Test
+	public void collapsesWhitespace() {
+		assertEquals("BUILD FAILED", FailureSignature.of("\t BUILD   FAILED \r"));
+	}
+
+	@Test
+	public void longLinesAreCutOff() {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			line.append('x');
+		}
+		assertEquals(500, FailureSignature.of(line.toString()).length());
+	}
+
+	@Test(timeout = 1000)
+	public void longLineWithoutSeparatorsIsQuick() {
+		StringBuilder line = new StringBuilder("ERROR ");
+		for (int i = 0; i < LogScanner.DEFAULT_MAX_LINE_LENGTH; i++) {
+			line.append(i % 7 == 0 ? '_' : 'a');
+		}
+		String signature = FailureSignature.of(line.toString());
+		assertEquals(500, signature.length());
+		assertTrue(signature.startsWith("ERROR _aaaaaa_a"));
+	}
+
+	@Test
+	public void pathsStartWhereTheirFirstSegmentDoes() {
+		assertEquals("missing <path>, see <path>", FailureSignature.of("missing lib/a.jar, see C:\\ws\\x.txt"));
+		assertEquals("id <hex> in cafe", FailureSignature.of("id 0x1f2e in cafe"));
+	}
+}
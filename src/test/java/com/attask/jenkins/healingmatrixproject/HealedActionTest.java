@@ -0,0 +1,45 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HealedActionTest {
+	@Test
+	public void noRange() {
+		assertNull(HealedAction.parseRange(null, 1000));
+		assertNull(HealedAction.parseRange("bytes=-", 1000));
+		assertNull(HealedAction.parseRange("bytes=0-10,20-30", 1000));
+		assertNull(HealedAction.parseRange("lines=0-10", 1000));
+	}
+
+	@Test
+	public void closedRangeIncludesItsEnd() {
+		assertArrayEquals(new long[]{0, 11}, HealedAction.parseRange("bytes=0-10", 1000));
+		assertArrayEquals(new long[]{500, 501}, HealedAction.parseRange(" bytes=500-500 ", 1000));
+	}
+
+	@Test
+	public void rangeIsCutOffAtTheEndOfTheLog() {
+		assertArrayEquals(new long[]{900, 1000}, HealedAction.parseRange("bytes=900-5000", 1000));
+	}
+
+	@Test
+	public void openRangeGoesToTheEnd() {
+		assertArrayEquals(new long[]{400, 1000}, HealedAction.parseRange("bytes=400-", 1000));
+	}
+
+	@Test
+	public void suffixRangeIsTheEndOfTheLog() {
+		assertArrayEquals(new long[]{800, 1000}, HealedAction.parseRange("bytes=-200", 1000));
+		assertArrayEquals(new long[]{0, 1000}, HealedAction.parseRange("bytes=-5000", 1000));
+	}
+
+	@Test
+	public void rangePastTheEndIsUnsatisfiable() {
+		assertSame(HealedAction.UNSATISFIABLE_RANGE, HealedAction.parseRange("bytes=1000-", 1000));
+		assertSame(HealedAction.UNSATISFIABLE_RANGE, HealedAction.parseRange("bytes=20-10", 1000));
+		assertSame(HealedAction.UNSATISFIABLE_RANGE, HealedAction.parseRange("bytes=-0", 1000));
+		assertSame(HealedAction.UNSATISFIABLE_RANGE, HealedAction.parseRange("bytes=-10", 0));
+	}
+}
@@ -0,0 +1,123 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HealedLogIndexTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void escapingRoundTrips() {
+		for (String value : new String[]{"", "plain", "a\tb", "line\nnext\r\n", "C:\\ws\\new", "\\t is not a tab", "ends with \\"}) {
+			String escaped = TabSeparated.escape(value);
+			assertFalse(escaped.contains("\t"));
+			assertFalse(escaped.contains("\n"));
+			assertFalse(escaped.contains("\r"));
+			assertEquals(value, TabSeparated.unescape(escaped));
+		}
+	}
+
+	@Test
+	public void attemptsRoundTrip() throws IOException {
+		File directory = folder.newFolder("autoHealedLogs");
+		HealedLogIndex index = HealedLogIndex.load(directory);
+		String excerpt = "[INFO] Downloading\n\tERROR: Connection reset\n[INFO] Done";
+		assertEquals(1, index.add("os=linux", new File(directory, "os=linux_0.gz"), "Connection\treset", 1234, excerpt));
+		assertEquals(2, index.add("os=linux", new File(directory, "os=linux_1"), null, -1, null));
+		assertEquals(1, index.add("os=windows", new File(directory, "os=windows_2"), "\\d+ tests? failed", 0, ""));
+
+		HealedLogIndex loaded = HealedLogIndex.load(directory);
+		assertEquals(2, loaded.getRunCount());
+		assertEquals(3, loaded.getAttemptCount());
+
+		HealedLogIndex.Attempt first = loaded.get("os=linux", 0);
+		assertEquals("os=linux", first.getRunName());
+		assertEquals(new File(directory, "os=linux_0.gz"), first.getFile());
+		assertEquals("Connection\treset", first.getPattern());
+		assertEquals(1234, first.getMatchOffset());
+		assertEquals(excerpt, first.getExcerpt());
+
+		HealedLogIndex.Attempt second = loaded.get("os=linux", 1);
+		assertNull(second.getPattern());
+		assertEquals(-1, second.getMatchOffset());
+		assertNull(second.getExcerpt());
+
+		HealedLogIndex.Attempt third = loaded.get("os=windows", 0);
+		assertEquals("\\d+ tests? failed", third.getPattern());
+		assertNull(third.getExcerpt());
+
+		assertNull(loaded.get("os=linux", 2));
+		assertNull(loaded.get("os=mac", 0));
+	}
+
+	@Test
+	public void logsInTheDirectoryAreStoredByName() throws IOException {
+		File directory = folder.newFolder("autoHealedLogs");
+		File elsewhere = new File(folder.newFolder("old"), "log");
+		HealedLogIndex index = HealedLogIndex.load(directory);
+		index.add("a", new File(directory, "a_0"), null, -1, null);
+		index.add("b", elsewhere, null, -1, null);
+
+		List<String> lines = readLines(new File(directory, HealedLogIndex.FILE_NAME));
+		assertTrue(lines.get(0).startsWith("a\ta_0\t"));
+		assertTrue(lines.get(1).startsWith("b\t" + TabSeparated.escape(elsewhere.getAbsolutePath()) + "\t"));
+
+		//Moving the build directory keeps the logs in it.
+		File moved = new File(folder.getRoot(), "moved");
+		assertTrue(directory.renameTo(moved));
+		HealedLogIndex loaded = HealedLogIndex.load(moved);
+		assertEquals(new File(moved, "a_0"), loaded.get("a", 0).getFile());
+		assertEquals(elsewhere.getAbsoluteFile(), loaded.get("b", 0).getFile());
+	}
+
+	@Test
+	public void readsOlderAndDamagedLines() throws IOException {
+		File directory = folder.newFolder("autoHealedLogs");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, HealedLogIndex.FILE_NAME)), "UTF-8");
+		writer.write("a\ta_0\n");
+		writer.write("cut short\n");
+		writer.write("b\tb_1\tpattern\tnot a number\t\n");
+		writer.close();
+
+		HealedLogIndex loaded = HealedLogIndex.load(directory);
+		assertEquals(2, loaded.getAttemptCount());
+		assertEquals(new File(directory, "a_0"), loaded.get("a", 0).getFile());
+		assertNull(loaded.get("a", 0).getPattern());
+		assertEquals(-1, loaded.get("a", 0).getMatchOffset());
+		assertEquals("pattern", loaded.get("b", 0).getPattern());
+		assertEquals(-1, loaded.get("b", 0).getMatchOffset());
+	}
+
+	@Test
+	public void migrateDoesNotOverwriteAnIndex() throws IOException {
+		File directory = folder.newFolder("autoHealedLogs");
+		Map<String, List<File>> oldLogFiles = Collections.singletonMap("a", Collections.singletonList(new File(directory, "a_0")));
+
+		assertEquals(1, HealedLogIndex.migrate(directory, oldLogFiles).getAttemptCount());
+		assertEquals(1, HealedLogIndex.migrate(directory, oldLogFiles).getAttemptCount());
+		assertEquals(1, readLines(new File(directory, HealedLogIndex.FILE_NAME)).size());
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			List<String> lines = new ArrayList<String>();
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				lines.add(line);
+			}
+			return lines;
+		} finally {
+			reader.close();
+		}
+	}
+}
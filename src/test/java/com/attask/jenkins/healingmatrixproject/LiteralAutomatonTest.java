@@ -0,0 +1,82 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LiteralAutomatonTest {
+	@Test
+	public void findsOverlappingKeywords() {
+		LiteralAutomaton automaton = create("he", "she", "his", "hers");
+
+		//"ushers" holds "she" and "he" ending at the same place, then "hers".
+		assertEquals(Arrays.asList("3:0", "3:1", "5:3"), scan(automaton, "ushers"));
+		assertEquals(Arrays.asList("2:2"), scan(automaton, "his"));
+		assertEquals(Collections.<String>emptyList(), scan(automaton, "xyz"));
+	}
+
+	@Test
+	public void keywordInsideAnother() {
+		LiteralAutomaton automaton = create("abcd", "bc");
+
+		assertEquals(Arrays.asList("2:1"), scan(automaton, "abce"));
+		assertEquals(Arrays.asList("2:1", "3:0"), scan(automaton, "abcd"));
+	}
+
+	@Test
+	public void recoversAfterAPartialMatch() {
+		LiteralAutomaton automaton = create("aab");
+
+		assertEquals(Arrays.asList("3:0"), scan(automaton, "aaab"));
+		assertEquals(Arrays.asList("2:0", "5:0"), scan(automaton, "aabaab"));
+	}
+
+	@Test
+	public void sameKeywordTwice() {
+		LiteralAutomaton automaton = create("err", "err");
+
+		assertEquals(Arrays.asList("2:0", "2:1"), scan(automaton, "err"));
+	}
+
+	@Test
+	public void noKeywords() {
+		LiteralAutomaton automaton = create();
+
+		assertEquals(Collections.<String>emptyList(), scan(automaton, "anything"));
+	}
+
+	private static LiteralAutomaton create(String... keywords) {
+		int[][] symbols = new int[keywords.length][];
+		int[] ids = new int[keywords.length];
+		for (int i = 0; i < keywords.length; i++) {
+			symbols[i] = new int[keywords[i].length()];
+			for (int j = 0; j < keywords[i].length(); j++) {
+				symbols[i][j] = keywords[i].charAt(j);
+			}
+			ids[i] = i;
+		}
+		return new LiteralAutomaton(symbols, ids, 128);
+	}
+
+	/**
+	 * @return "end:id" for every keyword found, in the order found, with ids found at the same place sorted.
+	 */
+	private static List<String> scan(LiteralAutomaton automaton, String text) {
+		List<String> found = new ArrayList<String>();
+		int state = automaton.start();
+		for (int i = 0; i < text.length(); i++) {
+			state = automaton.next(state, text.charAt(i));
+			int[] outputs = automaton.outputs(state).clone();
+			Arrays.sort(outputs);
+			for (int id : outputs) {
+				found.add(i + ":" + id);
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,106 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class LogPatternMatcherTest {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Test
+	public void plainLiteral() {
+		assertEquals("Connection reset", LogPatternMatcher.plainLiteral("Connection reset"));
+		assertEquals("build.xml (No such file)", LogPatternMatcher.plainLiteral("build\\.xml \\(No such file\\)"));
+		assertEquals("", LogPatternMatcher.plainLiteral(""));
+		assertNull(LogPatternMatcher.plainLiteral("build.xml"));
+		assertNull(LogPatternMatcher.plainLiteral("\\d errors"));
+		assertNull(LogPatternMatcher.plainLiteral("^ERROR"));
+		assertNull(LogPatternMatcher.plainLiteral("a|b"));
+		assertNull(LogPatternMatcher.plainLiteral("ends with a backslash\\"));
+	}
+
+	@Test
+	public void requiredLiteral() {
+		assertEquals("Could not resolve ", LogPatternMatcher.requiredLiteral("Could not resolve .* host"));
+		assertEquals(" errors found", LogPatternMatcher.requiredLiteral("\\d+ errors found"));
+		assertEquals("Exception: ", LogPatternMatcher.requiredLiteral("^[\\w.]+Exception: \\w+"));
+		assertEquals("bar", LogPatternMatcher.requiredLiteral("(foo)bar"));
+		assertEquals("def", LogPatternMatcher.requiredLiteral("[abc]+def"));
+		assertEquals("yz", LogPatternMatcher.requiredLiteral("x{2,3}yz"));
+		assertEquals("ab", LogPatternMatcher.requiredLiteral("ab+"));
+	}
+
+	@Test
+	public void requiredLiteralLeavesOutOptionalCharacters() {
+		assertEquals("colo", LogPatternMatcher.requiredLiteral("colou?r"));
+		assertEquals("timed ou", LogPatternMatcher.requiredLiteral("timed out*"));
+	}
+
+	@Test
+	public void requiredLiteralDoesNotGuess() {
+		assertNull(LogPatternMatcher.requiredLiteral("Connection refused|Connection reset"));
+		assertNull(LogPatternMatcher.requiredLiteral("(?i)error"));
+		assertNull(LogPatternMatcher.requiredLiteral("\\Qa.b\\E"));
+		assertNull(LogPatternMatcher.requiredLiteral(".*"));
+		assertNull(LogPatternMatcher.requiredLiteral("\\d+"));
+	}
+
+	@Test
+	public void findsTheFirstPatternThatMatches() {
+		LogPatternMatcher matcher = LogPatternMatcher.compile("Connection reset\nFAIL.*timeout\n^\\s*at ");
+		assertEquals(3, matcher.size());
+
+		LogPatternMatcher.Session session = matcher.newSession();
+		assertEquals(1, session.find("FAIL: socket timeout"));
+		assertEquals(0, session.find("FAIL: timeout after Connection reset"));
+		assertEquals(2, session.find("    at Foo.bar(Foo.java:12)"));
+		assertEquals(-1, session.find("BUILD SUCCESSFUL"));
+		assertEquals(-1, session.find(""));
+	}
+
+	@Test
+	public void findsPatternsInBytes() {
+		LogPatternMatcher matcher = LogPatternMatcher.compile("Échec de la connexion\n\\d+ tests? failed");
+		LogPatternMatcher.Session session = matcher.newSession(UTF_8);
+
+		assertEquals(0, find(session, "[naïve] Échec de la connexion"));
+		assertEquals(1, find(session, "Résultat : 3 tests failed"));
+		assertEquals(-1, find(session, "Échec"));
+	}
+
+	@Test
+	public void emptyMatcherNeverMatches() {
+		LogPatternMatcher matcher = LogPatternMatcher.compile("");
+		assertTrue(matcher.isEmpty());
+		assertEquals(-1, matcher.newSession().find("anything"));
+		assertEquals(-1, find(matcher.newSession(UTF_8), "anything"));
+	}
+
+	@Test
+	public void patternThatBlowsItsBudgetIsDisabledForTheSession() {
+		LogPatternMatcher matcher = LogPatternMatcher.compile("^(.*a){8}b\nnever");
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 40; i++) {
+			line.append('a');
+		}
+		line.append("!b");
+		String matchingLine = "aaaaaaaab";
+
+		LogPatternMatcher.Session session = matcher.newSession();
+		assertEquals(0, session.find(matchingLine));
+		assertTrue(session.takeDisabledPatterns().isEmpty());
+		assertEquals(-1, session.find(line));
+		assertEquals(Collections.singletonList("^(.*a){8}b"), session.takeDisabledPatterns());
+		assertTrue(session.takeDisabledPatterns().isEmpty());
+		assertEquals(-1, session.find(matchingLine));
+		assertEquals(0, matcher.newSession().find(matchingLine));
+	}
+
+	private static int find(LogPatternMatcher.Session session, String line) {
+		byte[] bytes = ("xx" + line + "yy").getBytes(UTF_8);
+		return session.find(bytes, 2, bytes.length - 4);
+	}
+}
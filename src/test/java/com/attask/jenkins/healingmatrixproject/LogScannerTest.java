@@ -0,0 +1,93 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class LogScannerTest {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void findsTheLineThatMatches() throws IOException {
+		File log = write("before\nERROR here\nafter\n");
+		LogScanner scanner = new LogScanner(LogPatternMatcher.compile("ERROR"), UTF_8, LogScanner.DEFAULT_MAX_LINE_LENGTH);
+
+		assertEquals(0, scanner.scanComplete(log, 0));
+		assertEquals("before\n".length(), scanner.getMatchOffset());
+		assertEquals("ERROR here", scanner.getMatchedLine());
+	}
+
+	@Test
+	public void windowStartingAtALineScansThatLine() throws IOException {
+		File log = write("before\nERROR here\nafter\n");
+		LogScanner scanner = new LogScanner(LogPatternMatcher.compile("ERROR"), UTF_8, LogScanner.DEFAULT_MAX_LINE_LENGTH);
+
+		assertEquals(0, scanner.scanComplete(log, "ERROR here\nafter\n".length()));
+		assertEquals("before\n".length(), scanner.getMatchOffset());
+	}
+
+	@Test
+	public void windowStartingInsideALineSkipsIt() throws IOException {
+		File log = write("before\nERROR here\nafter\n");
+		LogScanner scanner = new LogScanner(LogPatternMatcher.compile("ERROR|here"), UTF_8, LogScanner.DEFAULT_MAX_LINE_LENGTH);
+
+		assertEquals(-1, scanner.scanComplete(log, "RROR here\nafter\n".length()));
+	}
+
+	@Test
+	public void lastLineWithoutALineBreakIsScannedOnceFinished() throws IOException {
+		File log = write("before\nERROR at the end");
+		LogScanner scanner = new LogScanner(LogPatternMatcher.compile("ERROR"), UTF_8, LogScanner.DEFAULT_MAX_LINE_LENGTH);
+
+		assertEquals(-1, scanner.scan(log));
+		assertEquals(0, scanner.finish());
+		assertEquals("ERROR at the end", scanner.getMatchedLine());
+	}
+
+	@Test
+	public void logsThatCantBeSplitOnBytesAreScannedWhole() throws IOException {
+		File log = write("ERROR at the start\n" + repeat('x', 1000) + "\nafter\n", "UTF-16");
+		LogScanner scanner = new LogScanner(LogPatternMatcher.compile("ERROR"), Charset.forName("UTF-16"), LogScanner.DEFAULT_MAX_LINE_LENGTH);
+
+		assertFalse(scanner.canScanPartially());
+		assertEquals(0, scanner.scanComplete(log, 100));
+		assertEquals("ERROR at the start", scanner.getMatchedLine());
+	}
+
+	@Test
+	public void decodedLinesAreCutOff() throws IOException {
+		File log = write(repeat('x', 100) + "ERROR\r\nERROR after\r\n", "UTF-16");
+		LogScanner scanner = new LogScanner(LogPatternMatcher.compile("ERROR"), Charset.forName("UTF-16"), 50);
+
+		assertEquals(0, scanner.scanComplete(log, 0));
+		assertEquals("ERROR after", scanner.getMatchedLine());
+	}
+
+	private File write(String text) throws IOException {
+		return write(text, "UTF-8");
+	}
+
+	private File write(String text, String charset) throws IOException {
+		File log = folder.newFile();
+		FileUtils.writeStringToFile(log, text, charset);
+		return log;
+	}
+
+	private static String repeat(char c, int count) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			result.append(c);
+		}
+		return result.toString();
+	}
+}
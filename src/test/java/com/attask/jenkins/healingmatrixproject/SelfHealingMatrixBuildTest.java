@@ -0,0 +1,174 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.Launcher;
+import hudson.matrix.*;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.Result;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.BuildStepMonitor;
+import hudson.tasks.Publisher;
+import hudson.tasks.Recorder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+import org.jvnet.hudson.test.TestExtension;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds a small matrix with {@link SelfHealingMatrixExecutionStrategy}, where some configurations fail once with a line that matches.
+ */
+public class SelfHealingMatrixBuildTest {
+	private static final String FLAKE_MESSAGE = "Connection reset by flaky test";
+
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+
+	@Test
+	public void configurationThatFailsOnceWithAMatchingLineIsRerunAndHealed() throws Exception {
+		MatrixProject project = createProject(Collections.singleton("x=a,y=1"), false);
+		EndRunRecorder recorder = project.getPublishersList().get(EndRunRecorder.class);
+
+		MatrixBuild build = j.assertBuildStatusSuccess(project.scheduleBuild2(0));
+
+		assertHealed(build, Collections.singleton("x=a,y=1"), recorder);
+	}
+
+	@Test
+	public void configurationsFailingTogetherAreEachArchivedOnceAndRerun() throws Exception {
+		//They fail at about the same time, so their logs are scanned, archived and deleted side by side.
+		Set<String> flaky = new HashSet<String>(Arrays.asList("x=a,y=1", "x=a,y=2", "x=b,y=1"));
+		MatrixProject project = createProject(flaky, true);
+		EndRunRecorder recorder = project.getPublishersList().get(EndRunRecorder.class);
+
+		MatrixBuild build = j.assertBuildStatusSuccess(project.scheduleBuild2(0));
+
+		assertHealed(build, flaky, recorder);
+	}
+
+	private MatrixProject createProject(Set<String> flakyCombinations, boolean compressHealedLogs) throws IOException {
+		j.jenkins.setNumExecutors(4);
+		MatrixProject project = j.jenkins.createProject(MatrixProject.class, "healing");
+		project.setAxes(new AxisList(new TextAxis("x", "a", "b"), new TextAxis("y", "1", "2")));
+		project.setExecutionStrategy(new SelfHealingMatrixExecutionStrategy(FLAKE_MESSAGE, Result.FAILURE, Result.ABORTED, 1, false, 0, false, compressHealedLogs, 0, 0, 0, false, 0, null, Result.SUCCESS, 0, null, 10, 0, false, 0, 0, false, false, Result.UNSTABLE, 0));
+		project.getBuildersList().add(new FailOnceBuilder(flakyCombinations));
+		project.getPublishersList().add(new EndRunRecorder());
+		return project;
+	}
+
+	/**
+	 * Checks that exactly the given configurations were rerun once and healed, that each of their failed runs was archived once,
+	 * and that the aggregators only saw the final run of each configuration.
+	 */
+	private static void assertHealed(MatrixBuild build, Set<String> flakyCombinations, EndRunRecorder recorder) {
+		List<MatrixRun> runs = build.getRuns();
+		assertEquals(4, runs.size());
+		Set<String> ended = new HashSet<String>();
+		for (MatrixRun run : runs) {
+			String combination = run.getParent().getCombination().toString();
+			assertEquals(combination, Result.SUCCESS, run.getResult());
+			SelfHealingCause cause = run.getCause(SelfHealingCause.class);
+			if (flakyCombinations.contains(combination)) {
+				assertNotNull(combination + " wasn't rerun", cause);
+				assertEquals(1, cause.getRetryCount());
+			} else {
+				assertNull(combination + " was rerun", cause);
+			}
+			ended.add(combination + (cause == null ? "" : " (rerun)"));
+		}
+
+		HealedAction healed = build.getAction(HealedAction.class);
+		assertNotNull(healed);
+		assertEquals(flakyCombinations.size(), healed.getAttemptCount());
+		assertEquals(flakyCombinations.size(), healed.getRunCount());
+		Map<String, List<HealedLogIndex.Attempt>> attempts = HealedLogIndex.load(new File(build.getRootDir(), "autoHealedLogs")).getAttempts();
+		assertEquals(flakyCombinations.size(), attempts.size());
+		for (MatrixRun run : runs) {
+			List<HealedLogIndex.Attempt> archived = attempts.get(run.toString());
+			if (!flakyCombinations.contains(run.getParent().getCombination().toString())) {
+				assertNull(archived);
+				continue;
+			}
+			assertEquals(run + " was archived " + archived.size() + " times", 1, archived.size());
+			assertEquals(FLAKE_MESSAGE, archived.get(0).getPattern());
+			assertTrue(archived.get(0).isAvailable());
+			assertTrue(archived.get(0).getExcerpt().contains(FLAKE_MESSAGE));
+		}
+
+		assertEquals("every final run, once each: " + recorder.getEnded(), 4, recorder.getEnded().size());
+		assertEquals(ended, new HashSet<String>(recorder.getEnded()));
+	}
+
+	/**
+	 * Fails the first run of the given configurations with {@link #FLAKE_MESSAGE}, and passes everything else.
+	 */
+	private static class FailOnceBuilder extends TestBuilder {
+		private final Set<String> flakyCombinations;
+
+		private FailOnceBuilder(Set<String> flakyCombinations) {
+			this.flakyCombinations = flakyCombinations;
+		}
+
+		@Override
+		public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+			MatrixRun run = (MatrixRun) build;
+			if (flakyCombinations.contains(run.getParent().getCombination().toString()) && run.getCause(SelfHealingCause.class) == null) {
+				//Gives the other configurations time to start, so the failures overlap.
+				Thread.sleep(1000);
+				listener.getLogger().println(FLAKE_MESSAGE);
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Records every run the aggregators are told has ended, by its combination and whether it was a rerun.
+	 */
+	public static class EndRunRecorder extends Recorder implements MatrixAggregatable {
+		private final transient List<String> ended = Collections.synchronizedList(new ArrayList<String>());
+
+		public MatrixAggregator createAggregator(MatrixBuild build, Launcher launcher, BuildListener listener) {
+			return new MatrixAggregator(build, launcher, listener) {
+				@Override
+				public boolean endRun(MatrixRun run) throws InterruptedException, IOException {
+					ended.add(run.getParent().getCombination().toString() + (run.getCause(SelfHealingCause.class) == null ? "" : " (rerun)"));
+					return true;
+				}
+			};
+		}
+
+		@Override
+		public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+			return true;
+		}
+
+		public BuildStepMonitor getRequiredMonitorService() {
+			return BuildStepMonitor.NONE;
+		}
+
+		List<String> getEnded() {
+			return new ArrayList<String>(ended);
+		}
+
+		@TestExtension
+		public static class DescriptorImpl extends BuildStepDescriptor<Publisher> {
+			@Override
+			public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+				return true;
+			}
+
+			@Override
+			public String getDisplayName() {
+				return "Records the runs aggregators see";
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SelfHealingMatrixExecutionStrategyTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void noRetryBudget() {
+		assertEquals(-1, SelfHealingMatrixExecutionStrategy.parseRetryBudget(null, 40));
+	}
+
+	@Test
+	public void retryBudgetAsACount() {
+		assertEquals(0, SelfHealingMatrixExecutionStrategy.parseRetryBudget("0", 40));
+		assertEquals(7, SelfHealingMatrixExecutionStrategy.parseRetryBudget("7", 40));
+		assertEquals(100, SelfHealingMatrixExecutionStrategy.parseRetryBudget("100", 40));
+	}
+
+	@Test
+	public void retryBudgetAsAPercentageRoundsUp() {
+		assertEquals(4, SelfHealingMatrixExecutionStrategy.parseRetryBudget("10%", 40));
+		assertEquals(5, SelfHealingMatrixExecutionStrategy.parseRetryBudget("10 %", 41));
+		assertEquals(1, SelfHealingMatrixExecutionStrategy.parseRetryBudget("1%", 3));
+		assertEquals(0, SelfHealingMatrixExecutionStrategy.parseRetryBudget("0%", 40));
+		assertEquals(80, SelfHealingMatrixExecutionStrategy.parseRetryBudget("200%", 40));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void negativeRetryBudget() {
+		SelfHealingMatrixExecutionStrategy.parseRetryBudget("-1", 40);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void negativePercentageRetryBudget() {
+		SelfHealingMatrixExecutionStrategy.parseRetryBudget("-5%", 40);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void retryBudgetThatIsNotANumber() {
+		SelfHealingMatrixExecutionStrategy.parseRetryBudget("lots", 40);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void percentageRetryBudgetThatIsNotANumber() {
+		SelfHealingMatrixExecutionStrategy.parseRetryBudget("half%", 40);
+	}
+
+	@Test
+	public void configurationWithoutHistoryGetsTheUsualRetries() {
+		assertEquals(2, SelfHealingMatrixExecutionStrategy.decideMaxRetries(2, null));
+	}
+
+	@Test
+	public void configurationThatReliablyHealsGetsAnExtraRetry() throws IOException {
+		FlakinessHistory history = new FlakinessHistory(new File(folder.getRoot(), "history.tsv"));
+		for (int i = 0; i < 5; i++) {
+			history.record("os=linux", 2, true, Collections.singletonList("Connection reset"), 1000);
+		}
+		assertEquals(3, SelfHealingMatrixExecutionStrategy.decideMaxRetries(2, history.get("os=linux")));
+	}
+
+	@Test
+	public void configurationThatNeverHealsIsStillProbedNowAndThen() throws IOException {
+		FlakinessHistory history = new FlakinessHistory(new File(folder.getRoot(), "history.tsv"));
+		for (int i = 0; i < 5; i++) {
+			history.record("os=linux", 3, false, Collections.singletonList("Connection reset"), 1000);
+		}
+		assertEquals(0, SelfHealingMatrixExecutionStrategy.decideMaxRetries(2, history.get("os=linux")));
+
+		//Without retries, the builds add nothing but builds. One of the next few still gets its retries.
+		int lockedOut = 0;
+		while (SelfHealingMatrixExecutionStrategy.decideMaxRetries(2, history.get("os=linux")) == 0) {
+			assertTrue(++lockedOut < SelfHealingMatrixExecutionStrategy.HEAL_PROBE_INTERVAL_BUILDS);
+			history.record("os=linux", 1, false, Collections.<String>emptyList(), 1000);
+		}
+		assertEquals(2, SelfHealingMatrixExecutionStrategy.decideMaxRetries(2, history.get("os=linux")));
+
+		//The probe healed it, so it's rerun as usual from then on.
+		history.record("os=linux", 2, true, Collections.singletonList("Connection reset"), 1000);
+		assertEquals(2, SelfHealingMatrixExecutionStrategy.decideMaxRetries(2, history.get("os=linux")));
+	}
+}
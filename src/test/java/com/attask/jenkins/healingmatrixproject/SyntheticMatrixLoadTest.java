@@ -0,0 +1,191 @@
+package com.attask.jenkins.healingmatrixproject;
+
+import hudson.Launcher;
+import hudson.matrix.AxisList;
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixProject;
+import hudson.matrix.TextAxis;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Result;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a synthetic matrix through {@link SelfHealingMatrixExecutionStrategy} and reports what healing cost.
+ * <p/>
+ * Too slow for every build, so it's skipped unless <code>healing.load</code> is true:
+ * <pre>mvn test -Dtest=SyntheticMatrixLoadTest -Dhealing.load=true</pre>
+ * Every configuration fails with a log pattern at the given fail rate, and a rerun passes at the given heal rate.
+ * Configured through system properties:
+ * <ul>
+ * <li><code>healing.load.configurations</code>: the number of configurations (default 500)</li>
+ * <li><code>healing.load.executors</code>: the number of executors on the master (default 50)</li>
+ * <li><code>healing.load.failRate</code>: the chance a first run fails (default 0.2)</li>
+ * <li><code>healing.load.healRate</code>: the chance a rerun passes (default 0.9)</li>
+ * <li><code>healing.load.maxRetries</code>: reruns per configuration (default 2)</li>
+ * <li><code>healing.load.runMillis</code>: how long each run takes (default 200)</li>
+ * <li><code>healing.load.report</code>: a file to write the report to, on top of printing it (default none)</li>
+ * </ul>
+ */
+public class SyntheticMatrixLoadTest {
+	private static final String FLAKE_MESSAGE = "SYNTHETIC FLAKE";
+
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+
+	@BeforeClass
+	public static void onlyWhenAskedFor() {
+		Assume.assumeTrue(Boolean.getBoolean("healing.load"));
+	}
+
+	@Test
+	public void syntheticMatrix() throws Exception {
+		int configurations = Integer.getInteger("healing.load.configurations", 500);
+		int executors = Integer.getInteger("healing.load.executors", 50);
+		double failRate = Double.parseDouble(System.getProperty("healing.load.failRate", "0.2"));
+		double healRate = Double.parseDouble(System.getProperty("healing.load.healRate", "0.9"));
+		int maxRetries = Integer.getInteger("healing.load.maxRetries", 2);
+		long runMillis = Long.getLong("healing.load.runMillis", 200);
+		String reportFile = System.getProperty("healing.load.report");
+
+		j.jenkins.setNumExecutors(executors);
+		MatrixProject project = j.jenkins.createProject(MatrixProject.class, "synthetic-matrix");
+		List<String> cells = new ArrayList<String>();
+		for (int i = 0; i < configurations; i++) {
+			cells.add(String.valueOf(i));
+		}
+		project.setAxes(new AxisList(new TextAxis("cell", cells)));
+		project.setExecutionStrategy(new SelfHealingMatrixExecutionStrategy(FLAKE_MESSAGE, Result.FAILURE, Result.ABORTED, maxRetries, false, 0, false, false, 0, 0, 0, false, 0, null, Result.SUCCESS, 0, null, 10, 0, false, 0, 0, false, false, Result.UNSTABLE, 0));
+		project.getBuildersList().add(new FlakyBuilder(failRate, healRate, runMillis));
+
+		HeapSampler heap = new HeapSampler();
+		heap.start();
+		long wallMillis;
+		MatrixBuild build;
+		try {
+			long start = System.currentTimeMillis();
+			build = project.scheduleBuild2(0).get();
+			wallMillis = System.currentTimeMillis() - start;
+		} finally {
+			heap.interrupt();
+		}
+
+		String report = createReport(build, configurations, executors, failRate, healRate, wallMillis, heap);
+		System.out.println(report);
+		if (reportFile != null) {
+			File file = new File(reportFile);
+			if (file.getParentFile() != null) {
+				file.getParentFile().mkdirs();
+			}
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			try {
+				writer.write(report);
+			} finally {
+				writer.close();
+			}
+		}
+
+		HealingStatsAction stats = build.getAction(HealingStatsAction.class);
+		assertNotNull(stats);
+		assertEquals(configurations + stats.getRetries(), stats.getAttempts());
+	}
+
+	private static String createReport(MatrixBuild build, int configurations, int executors, double failRate, double healRate, long wallMillis, HeapSampler heap) {
+		HealingStatsAction stats = build.getAction(HealingStatsAction.class);
+		StringWriter report = new StringWriter();
+		PrintWriter out = new PrintWriter(report);
+		out.printf("Synthetic matrix: %d configurations, %d executors, fail rate %.2f, heal rate %.2f%n", configurations, executors, failRate, healRate);
+		out.printf("Result:                     %s in %d ms%n", build.getResult(), wallMillis);
+		if (stats != null) {
+			out.printf("Attempts:                   %d (%d retries)%n", stats.getAttempts(), stats.getRetries());
+			out.printf("Coordinator iterations:     %d%n", stats.getCoordinatorIterations());
+			out.printf("Coordinator busy:           %d ms (%.2f%% of wall time)%n", stats.getCoordinatorMillis(), 100.0 * stats.getCoordinatorMillis() / Math.max(1, wallMillis));
+			out.printf("Finish to retry scheduled:  %.1f ms average%n", stats.getRetries() == 0 ? 0.0 : (double) stats.getRetryLatencyMillis() / stats.getRetries());
+			out.printf("Time in queue:              %.1f ms average%n", stats.getAttempts() == 0 ? 0.0 : (double) stats.getQueueMillis() / stats.getAttempts());
+			out.printf("Log scans:                  %d bytes in %d ms%n", stats.getLogBytesScanned(), stats.getScanMillis());
+			out.printf("Archiving:                  %d bytes in %d ms%n", stats.getArchivedBytes(), stats.getArchiveMillis());
+		}
+		out.printf("Heap used:                  %d MB peak, %d MB at the end after GC%n", heap.getPeakBytes() / (1024 * 1024), heap.getUsedAfterGc() / (1024 * 1024));
+		out.flush();
+		return report.toString();
+	}
+
+	/**
+	 * Fails with {@link #FLAKE_MESSAGE} at the fail rate on a first run, and at the opposite of the heal rate on a rerun.
+	 */
+	private static class FlakyBuilder extends TestBuilder {
+		private final double failRate;
+		private final double healRate;
+		private final long runMillis;
+		private final Random random = new Random(42);
+
+		private FlakyBuilder(double failRate, double healRate, long runMillis) {
+			this.failRate = failRate;
+			this.healRate = healRate;
+			this.runMillis = runMillis;
+		}
+
+		@Override
+		public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+			Thread.sleep(runMillis);
+			boolean rerun = build.getCause(SelfHealingCause.class) != null;
+			double roll;
+			synchronized (random) {
+				roll = random.nextDouble();
+			}
+			if (rerun ? roll >= healRate : roll < failRate) {
+				listener.getLogger().println(FLAKE_MESSAGE);
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Samples the heap in the background to find the peak, since the build itself doesn't report it.
+	 */
+	private static class HeapSampler extends Thread {
+		private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		private volatile long peakBytes;
+
+		private HeapSampler() {
+			super("Heap sampler");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!isInterrupted()) {
+					peakBytes = Math.max(peakBytes, memory.getHeapMemoryUsage().getUsed());
+					Thread.sleep(100);
+				}
+			} catch (InterruptedException e) {
+				//done
+			}
+		}
+
+		long getPeakBytes() {
+			return peakBytes;
+		}
+
+		long getUsedAfterGc() {
+			memory.gc();
+			return memory.getHeapMemoryUsage().getUsed();
+		}
+	}
+}